@@ -0,0 +1,86 @@
+package docs;
+
+import com.google.gdata.data.acl.AclRole;
+import com.google.gdata.data.acl.AclScope;
+
+/**
+ * One change to the access control list of an object, for use with
+ * {@link DocumentList#batchAclOperations}.
+ */
+public class AclOperation {
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        ADD, CHANGE, REMOVE
+    }
+
+    private final Type type;
+    private final String resourceId;
+    private final AclScope scope;
+    private final AclRole role;
+
+    private AclOperation(Type type, String resourceId, AclScope scope, AclRole role) {
+        this.type = type;
+        this.resourceId = resourceId;
+        this.scope = scope;
+        this.role = role;
+    }
+
+    /**
+     * Creates an operation that adds a role, like {@link DocumentList#addAclRole}.
+     */
+    public static AclOperation add(AclRole role, AclScope scope, String resourceId) {
+        return new AclOperation(Type.ADD, resourceId, scope, role);
+    }
+
+    /**
+     * Creates an operation that changes the role of a scope, like
+     * {@link DocumentList#changeAclRole}.
+     */
+    public static AclOperation change(AclRole role, AclScope scope, String resourceId) {
+        return new AclOperation(Type.CHANGE, resourceId, scope, role);
+    }
+
+    /**
+     * Creates an operation that removes the role of a scope, like
+     * {@link DocumentList#removeAclRole}.
+     */
+    public static AclOperation remove(AclScope scope, String resourceId) {
+        return new AclOperation(Type.REMOVE, resourceId, scope, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public AclScope getScope() {
+        return scope;
+    }
+
+    public AclRole getRole() {
+        return role;
+    }
+
+    /**
+     * Gets the id of the ACL entry within the object's ACL feed, such as
+     * "user%3Ajo@example.com".
+     */
+    String getEntryId() {
+        String type = scope.getType().name().toLowerCase();
+        if (scope.getValue() == null) {
+            return type;
+        }
+        return type + "%3A" + scope.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + (role == null ? "" : role.getValue() + " ") + getEntryId()
+                + " on " + resourceId;
+    }
+}
@@ -0,0 +1,24 @@
+package docs;
+
+import info.bliki.html.HTML2WikiConverter;
+import info.bliki.html.wikipedia.ToWikipedia;
+
+/**
+ * Converts HTML with the bliki converter and its Wikipedia rules. It handles
+ * the most markup, at the cost of building a full node tree of every document.
+ */
+public class BlikiWikiConverter implements WikiConverter {
+    private final HTML2WikiConverter converter = new HTML2WikiConverter();
+    // The tag table is built once per instance and holds no per-document state.
+    private final ToWikipedia rules = new ToWikipedia();
+
+    public String toWiki(String html) {
+        converter.setInputHTML(html);
+        try {
+            return converter.toWiki(rules);
+        } finally {
+            // Do not keep the last document alive in the thread's converter.
+            converter.setInputHTML("");
+        }
+    }
+}
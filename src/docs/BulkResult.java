@@ -0,0 +1,52 @@
+package docs;
+
+/**
+ * The outcome of one item of a bulk operation. Bulk operations report every
+ * item, so one failure does not hide the rest.
+ *
+ * @param <T> the type of the items the bulk operation was given.
+ */
+public class BulkResult<T> {
+    private final T item;
+    private final boolean success;
+    private final int statusCode;
+    private final String reason;
+
+    /**
+     * Constructor.
+     *
+     * @param item the item the result is for.
+     * @param success whether the operation on the item succeeded.
+     * @param statusCode the HTTP status of the operation, or 0 if it never
+     *        reached the server.
+     * @param reason a description of the outcome.
+     */
+    public BulkResult(T item, boolean success, int statusCode, String reason) {
+        this.item = item;
+        this.success = success;
+        this.statusCode = statusCode;
+        this.reason = reason;
+    }
+
+    public T getItem() {
+        return item;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return (success ? "OK " : "FAILED ") + item
+                + (reason == null ? "" : " (" + statusCode + " " + reason + ")");
+    }
+}
@@ -0,0 +1,127 @@
+package docs;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds documents whose exported content is the same, such as copies of one
+ * document filed in different folders, so that a bulk run migrates each body
+ * once and turns the copies into redirects to it.
+ *
+ * Bodies are told apart by a SHA-256 hash of the export from its body tag on,
+ * since the head holds the title, which copies usually change. The first
+ * document with a body claims it; copies that turn up while it is still being
+ * migrated wait for it, and take over if it fails.
+ *
+ * A deduplicator may be used from several threads at once.
+ */
+public class ContentDeduplicator {
+    private final Map<String, Claim> claims = new HashMap<String, Claim>();
+    private int duplicateCount;
+
+    private static class Claim {
+        final String title;
+        boolean published;
+
+        Claim(String title) {
+            this.title = title;
+        }
+    }
+
+    /**
+     * Hashes the body of an exported document.
+     *
+     * @param html the exported HTML.
+     *
+     * @return the hash, in hex.
+     */
+    public static String hash(String html) {
+        int start = html.indexOf("<body");
+        if (start < 0) {
+            start = 0;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest(html.substring(start).getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Claims a body for a page, unless another page has it already. If the
+     * other page is still being migrated, waits until it is published or
+     * fails.
+     *
+     * @param hash the hash of the body, from {@link #hash}.
+     * @param title the title of the page the caller is migrating.
+     *
+     * @return null if the caller claimed the body and must migrate it, then
+     *         call {@link #published} or {@link #failed}; otherwise the title of
+     *         the page that holds the body.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized String claim(String hash, String title) throws InterruptedException {
+        while (true) {
+            Claim claim = claims.get(hash);
+            if (claim == null) {
+                claims.put(hash, new Claim(title));
+                return null;
+            }
+            if (claim.published) {
+                duplicateCount++;
+                return claim.title;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Records that the page that claimed a body was published.
+     */
+    public synchronized void published(String hash) {
+        Claim claim = claims.get(hash);
+        if (claim != null) {
+            claim.published = true;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gives up a claim because its page failed, so that the next copy of the
+     * body is migrated in full instead.
+     */
+    public synchronized void failed(String hash) {
+        Claim claim = claims.get(hash);
+        if (claim != null && !claim.published) {
+            claims.remove(hash);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gets the number of documents found to be copies.
+     */
+    public synchronized int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Gets the wiki markup of a page that redirects to another.
+     */
+    public static String getRedirect(String title) {
+        return "#REDIRECT [[" + title + "]]";
+    }
+}
@@ -0,0 +1,442 @@
+package docs;
+
+import com.google.gdata.data.Link;
+import com.google.gdata.data.docs.DocumentListEntry;
+import com.google.gdata.util.ServiceException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A catalog of every entry of a Docs account, loaded once and kept in a compact
+ * columnar form so that even a very large account fits in a small heap.
+ *
+ * Each entry is a row across parallel arrays: a type code into a small table
+ * of interned type names, the row of its parent folder, its updated time in
+ * seconds and its size. Keys and titles are packed into one UTF-8 byte array,
+ * and an open addressing hash table of rows finds a key without any boxed
+ * objects. A catalog of half a million entries takes a few tens of megabytes.
+ *
+ * Rows are numbered from 0. A catalog is built by one thread; once built it
+ * may be read from several threads at once.
+ */
+public class DocumentCatalog {
+    /** The row of entries without a cataloged parent folder. */
+    public static final int NO_PARENT = -1;
+
+    private static final int FILE_MAGIC = 0x44434154;  // "DCAT"
+    private static final int FILE_VERSION = 1;
+    private static final String FOLDER_TYPE = "folder";
+    private static final String UNKNOWN_TYPE = "unknown";
+
+    private final List<String> typeNames = new ArrayList<String>();
+    private int count;
+    private byte[] types = new byte[16];
+    private int[] parents = new int[16];
+    private int[] updatedSeconds = new int[16];
+    private long[] sizes = new long[16];
+    // Where the key and title of each row are in text. A replaced row points
+    // at a new title and leaves its old one unused.
+    private int[] keyStarts = new int[16];
+    private int[] titleStarts = new int[16];
+    private int[] titleEnds = new int[16];
+    private byte[] text = new byte[1024];
+    private int textLength;
+    // Row + 1 of each key by hash, or 0 for an empty slot.
+    private int[] slots = new int[32];
+
+    /**
+     * Lists every entry of an account into a new catalog. Folders are cataloged
+     * from the parent links of their contents.
+     *
+     * @param documentList the logged in document list.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public static DocumentCatalog fetch(final DocumentList documentList) throws IOException,
+            ServiceException, DocumentListException {
+        final DocumentCatalog catalog = new DocumentCatalog();
+        // Streamed, so that no page of the listing is ever held as objects.
+        documentList.streamDocsListFeed("all", new EntrySummaryReader.Handler() {
+            public void entry(EntrySummary entry) throws DocumentListException {
+                catalog.add(documentList, entry);
+            }
+        });
+        return catalog;
+    }
+
+    /**
+     * Adds a streamed entry, or replaces the row of an entry with the same
+     * resource id.
+     *
+     * @param documentList the document list to parse resource ids with.
+     * @param entry the entry, from {@link DocumentList#streamDocsListFeed}.
+     *
+     * @return the row of the entry.
+     *
+     * @throws DocumentListException if the entry has a malformed resource id.
+     */
+    public int add(DocumentList documentList, EntrySummary entry)
+            throws DocumentListException {
+        int parent = NO_PARENT;
+        if (!entry.getParentIds().isEmpty()) {
+            String parentKey = documentList.getResourceIdSuffix(entry.getParentIds().get(0));
+            parent = indexOf(typeNames.indexOf(FOLDER_TYPE), parentKey);
+            if (parent < 0) {
+                parent = add(FOLDER_TYPE, parentKey, entry.getParentTitles().get(0), NO_PARENT,
+                        0, 0);
+            }
+        }
+        return add(entry.getType() == null ? UNKNOWN_TYPE : entry.getType(),
+                documentList.getResourceIdSuffix(entry.getResourceId()), entry.getTitle(),
+                parent, entry.getUpdated(), entry.getSize());
+    }
+
+    /**
+     * Adds an entry, or replaces the row of an entry with the same resource
+     * id.
+     *
+     * @param documentList the document list to parse resource ids with.
+     * @param entry the entry, from a listing feed.
+     *
+     * @return the row of the entry.
+     *
+     * @throws DocumentListException if the entry has a malformed resource id.
+     */
+    public int add(DocumentList documentList, DocumentListEntry entry)
+            throws DocumentListException {
+        int parent = NO_PARENT;
+        List<Link> parentLinks = entry.getParentLinks();
+        if (parentLinks != null && !parentLinks.isEmpty()) {
+            Link link = parentLinks.get(0);
+            String parentKey = documentList.getResourceIdSuffix(link.getHref());
+            parent = indexOf(typeNames.indexOf(FOLDER_TYPE), parentKey);
+            if (parent < 0) {
+                // Stands in for the folder until its own entry is listed.
+                parent = add(FOLDER_TYPE, parentKey,
+                        link.getTitle() == null ? "" : link.getTitle(), NO_PARENT, 0, 0);
+            }
+        }
+        Long size = entry.getQuotaBytesUsed();
+        String type = entry.getType();
+        return add(type == null ? UNKNOWN_TYPE : type,
+                documentList.getResourceIdSuffix(entry.getResourceId()),
+                entry.getTitle() == null ? "" : entry.getTitle().getPlainText(), parent,
+                entry.getUpdated() == null ? 0 : entry.getUpdated().getValue(),
+                size == null ? 0 : size);
+    }
+
+    /**
+     * Gets the number of rows.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the row of an entry, or -1 if it is not cataloged.
+     *
+     * @param resourceId the resource id of the entry, such as
+     *        "document:dh3bw3j_0f7xmjhd8".
+     */
+    public int indexOf(String resourceId) {
+        int colon = resourceId.indexOf(':');
+        if (colon < 0) {
+            return -1;
+        }
+        return indexOf(typeNames.indexOf(resourceId.substring(0, colon)),
+                resourceId.substring(colon + 1));
+    }
+
+    private int indexOf(int typeCode, String key) {
+        if (typeCode < 0) {
+            return -1;
+        }
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int mask = slots.length - 1;
+        for (int slot = hash(typeCode, bytes, 0, bytes.length) & mask; slots[slot] != 0;
+                slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            if (types[row] == typeCode && keyEquals(row, bytes)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    public String getKey(int row) {
+        return new String(text, keyStarts[row], titleStarts[row] - keyStarts[row],
+                StandardCharsets.UTF_8);
+    }
+
+    public String getResourceId(int row) {
+        return getType(row) + ":" + getKey(row);
+    }
+
+    public String getTitle(int row) {
+        return new String(text, titleStarts[row], titleEnds[row] - titleStarts[row],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the type of a row, such as "document" or "folder".
+     */
+    public String getType(int row) {
+        return typeNames.get(types[row]);
+    }
+
+    /**
+     * Gets the row of the parent folder of a row, or {@link #NO_PARENT}.
+     */
+    public int getParent(int row) {
+        return parents[row];
+    }
+
+    /**
+     * Gets the updated time of a row in milliseconds, to the second.
+     */
+    public long getUpdated(int row) {
+        return (updatedSeconds[row] & 0xffffffffL) * 1000;
+    }
+
+    public long getSize(int row) {
+        return sizes[row];
+    }
+
+    /**
+     * Finds the rows that match every given filter.
+     *
+     * @param type the type of the rows, or null for any.
+     * @param folder the resource id of the folder directly containing the rows,
+     *        or null for any.
+     * @param updatedMin the earliest updated time in milliseconds, or 0.
+     * @param updatedMax the latest updated time in milliseconds, or
+     *        Long.MAX_VALUE.
+     *
+     * @return the matching rows, in order.
+     */
+    public int[] find(String type, String folder, long updatedMin, long updatedMax) {
+        int typeCode = -1;
+        if (type != null) {
+            typeCode = typeNames.indexOf(type);
+            if (typeCode < 0) {
+                return new int[0];
+            }
+        }
+        int parent = NO_PARENT;
+        if (folder != null) {
+            parent = indexOf(folder);
+            if (parent < 0) {
+                return new int[0];
+            }
+        }
+        long minSeconds = updatedMin / 1000;
+        long maxSeconds = updatedMax / 1000;
+
+        int[] rows = new int[count];
+        int found = 0;
+        for (int row = 0; row < count; row++) {
+            long updated = updatedSeconds[row] & 0xffffffffL;
+            if ((typeCode < 0 || types[row] == typeCode)
+                    && (folder == null || parents[row] == parent)
+                    && updated >= minSeconds && updated <= maxSeconds) {
+                rows[found++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, found);
+    }
+
+    /**
+     * Writes the catalog to a file, replacing it only once fully written.
+     *
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), 64 * 1024));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(typeNames.size());
+            for (String typeName : typeNames) {
+                out.writeUTF(typeName);
+            }
+            out.writeInt(count);
+            out.write(types, 0, count);
+            for (int row = 0; row < count; row++) {
+                out.writeInt(parents[row]);
+                out.writeInt(updatedSeconds[row]);
+                out.writeLong(sizes[row]);
+                writeBytes(out, keyStarts[row], titleStarts[row]);
+                writeBytes(out, titleStarts[row], titleEnds[row]);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("cannot write " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads a catalog written by {@link #save}.
+     *
+     * @throws IOException if the file cannot be read or is not a catalog.
+     */
+    public static DocumentCatalog load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException(file + " is not a catalog");
+            }
+            DocumentCatalog catalog = new DocumentCatalog();
+            int typeCount = in.readInt();
+            for (int i = 0; i < typeCount; i++) {
+                catalog.typeNames.add(in.readUTF().intern());
+            }
+            int rows = in.readInt();
+            byte[] types = new byte[rows];
+            in.readFully(types);
+            for (int row = 0; row < rows; row++) {
+                int parent = in.readInt();
+                int updated = in.readInt();
+                long size = in.readLong();
+                String key = readString(in);
+                String title = readString(in);
+                catalog.append(types[row], key, title, parent, updated, size);
+            }
+            return catalog;
+        } finally {
+            in.close();
+        }
+    }
+
+    private int add(String type, String key, String title, int parent, long updatedMillis,
+                    long size) {
+        int typeCode = typeNames.indexOf(type);
+        if (typeCode < 0) {
+            typeCode = typeNames.size();
+            typeNames.add(type.intern());
+        }
+        int updated = (int) (updatedMillis / 1000);
+        int row = indexOf(typeCode, key);
+        if (row < 0) {
+            return append((byte) typeCode, key, title, parent, updated, size);
+        }
+        // Replace the row; its old title is left behind unused.
+        parents[row] = parent;
+        updatedSeconds[row] = updated;
+        sizes[row] = size;
+        titleStarts[row] = textLength;
+        appendText(title);
+        titleEnds[row] = textLength;
+        return row;
+    }
+
+    private int append(byte typeCode, String key, String title, int parent, int updated,
+                       long size) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            updatedSeconds = Arrays.copyOf(updatedSeconds, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            keyStarts = Arrays.copyOf(keyStarts, capacity);
+            titleStarts = Arrays.copyOf(titleStarts, capacity);
+            titleEnds = Arrays.copyOf(titleEnds, capacity);
+        }
+        int row = count++;
+        types[row] = typeCode;
+        parents[row] = parent;
+        updatedSeconds[row] = updated;
+        sizes[row] = size;
+        keyStarts[row] = textLength;
+        appendText(key);
+        titleStarts[row] = textLength;
+        appendText(title);
+        titleEnds[row] = textLength;
+
+        // Keep the table at most half full so that probes stay short.
+        if (count * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < count; i++) {
+                insertSlot(i);
+            }
+        } else {
+            insertSlot(row);
+        }
+        return row;
+    }
+
+    private void insertSlot(int row) {
+        int mask = slots.length - 1;
+        int slot = hash(types[row], text, keyStarts[row], titleStarts[row]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private void appendText(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (textLength + bytes.length > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + bytes.length));
+        }
+        System.arraycopy(bytes, 0, text, textLength, bytes.length);
+        textLength += bytes.length;
+    }
+
+    private boolean keyEquals(int row, byte[] key) {
+        int start = keyStarts[row];
+        if (titleStarts[row] - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (text[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(int typeCode, byte[] bytes, int start, int end) {
+        int hash = typeCode;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the bits, since the table is indexed by the low ones.
+        return hash ^ (hash >>> 16);
+    }
+
+    private void writeBytes(DataOutputStream out, int start, int end) throws IOException {
+        out.writeInt(end - start);
+        out.write(text, start, end - start);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -6,34 +6,58 @@ package docs;
 import com.google.gdata.client.GoogleAuthTokenFactory.UserToken;
 import com.google.gdata.client.GoogleService;
 import com.google.gdata.client.Query;
+import com.google.gdata.client.Service;
 import com.google.gdata.client.docs.DocsService;
+import com.google.gdata.client.http.HttpAuthToken;
+import com.google.gdata.data.BaseEntry;
+import com.google.gdata.data.BaseFeed;
 import com.google.gdata.data.MediaContent;
 import com.google.gdata.data.PlainTextConstruct;
 import com.google.gdata.data.acl.AclEntry;
 import com.google.gdata.data.acl.AclFeed;
 import com.google.gdata.data.acl.AclRole;
 import com.google.gdata.data.acl.AclScope;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
+import com.google.gdata.data.docs.ChangelogFeed;
 import com.google.gdata.data.docs.DocumentEntry;
 import com.google.gdata.data.docs.DocumentListEntry;
 import com.google.gdata.data.docs.DocumentListFeed;
 import com.google.gdata.data.docs.FolderEntry;
+import com.google.gdata.data.docs.MetadataEntry;
 import com.google.gdata.data.docs.PresentationEntry;
 import com.google.gdata.data.docs.RevisionFeed;
 import com.google.gdata.data.docs.SpreadsheetEntry;
 import com.google.gdata.data.media.MediaSource;
 import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.NotModifiedException;
 import com.google.gdata.util.ServiceException;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * An application that serves as a sample to show how the Documents List Service
@@ -45,13 +69,37 @@ import java.util.Set;
  */
 public class DocumentList {
     public DocsService service;
-    public GoogleService spreadsheetsService;
 
     public static final String DEFAULT_HOST = "docs.google.com";
 
     public static final String SPREADSHEETS_SERVICE_NAME = "wise";
     public static final String SPREADSHEETS_HOST = "spreadsheets.google.com";
 
+    /**
+     * A partial-response projection with just what listings and migrations
+     * read: the next link, and the etag, resource id, kind, title, updated and
+     * last viewed times, size and parent folders of each entry.
+     */
+    public static final String FIELDS_SUMMARY = "link[@rel='next'],entry(@gd:etag,"
+            + "gd:resourceId,category[@scheme='http://schemas.google.com/g/2005#kind'],"
+            + "title,updated,gd:lastViewed,gd:quotaBytesUsed,"
+            + "link[@rel='http://schemas.google.com/docs/2007#parent'])";
+
+    /** The most operations the server accepts in one batch request. */
+    public static final int MAX_ACL_BATCH_SIZE = 100;
+
+    /** The default size of each request of a resumable upload. */
+    public static final int DEFAULT_UPLOAD_CHUNK_BYTES = 1024 * 1024;
+    // Every chunk but the last must be a multiple of this.
+    private static final int UPLOAD_CHUNK_UNIT = 256 * 1024;
+    // How often a bulk operation retries an item, waiting twice as long each
+    // time.
+    private static final int MAX_RETRIES = 5;
+    private static final long RETRY_MILLIS = 1000;
+    private static final int STATUS_RESUME_INCOMPLETE = 308;
+
+    private static final int COPY_BUFFER_BYTES = 8192;
+
     private final String URL_FEED = "/feeds";
     private final String URL_DOWNLOAD = "/download";
     private final String URL_DOCLIST_FEED = "/private/full";
@@ -59,7 +107,11 @@ public class DocumentList {
     private final String URL_DEFAULT = "/default";
     private final String URL_FOLDERS = "/contents";
     private final String URL_ACL = "/acl";
+    private final String URL_BATCH = "/batch";
     private final String URL_REVISIONS = "/revisions";
+    private final String URL_CHANGES = "/private/changes";
+    private final String URL_METADATA = "/metadata";
+    private final String URL_UPLOAD_SESSION = "/upload/create-session";
 
     private final String URL_CATEGORY_DOCUMENT = "/-/document";
     private final String URL_CATEGORY_SPREADSHEET = "/-/spreadsheet";
@@ -73,6 +125,17 @@ public class DocumentList {
     private final String PARAMETER_SHOW_FOLDERS = "showfolders=true";
 
     private String host;
+    private String applicationName;
+
+    // Created on the first spreadsheet download, which is the only thing that
+    // needs it, so other sessions skip its login.
+    private GoogleService spreadsheetsService;
+
+    private String username;
+    private String password;
+    private SessionStore sessionStore;
+    private ExportBufferPool exportBufferPool = new ExportBufferPool();
+    private ValidatorStore validatorStore = new ValidatorStore(ValidatorStore.DEFAULT_MAX_ENTRIES);
 
     private final Map<String, String> DOWNLOAD_DOCUMENT_FORMATS;
     {
@@ -123,7 +186,8 @@ public class DocumentList {
      * Constructor
      *
      * @param applicationName name of the application
-     * @param host the host that contains the feeds
+     * @param host the host that contains the feeds. A scheme may be given, as in
+     *        "http://localhost:8080", to talk to a local stand-in server.
      *
      * @throws DocumentListException
      */
@@ -132,14 +196,53 @@ public class DocumentList {
             throw new DocumentListException("null passed in required parameters");
         }
 
-        service = new DocsService(applicationName);
-
-        // Creating a spreadsheets service is necessary for downloading spreadsheets
-        spreadsheetsService = new GoogleService(SPREADSHEETS_SERVICE_NAME, applicationName);
+        service = new DocsService(applicationName) {
+            @Override
+            protected void handleSessionExpiredException(SessionExpiredException e)
+                    throws ServiceException {
+                if (username == null || password == null) {
+                    super.handleSessionExpiredException(e);
+                    return;
+                }
+                // A token restored from the session store has expired, so log in
+                // again with the credentials we were given.
+                setUserCredentials(username, password);
+                saveToken(this, DocsService.DOCS_SERVICE);
+            }
+        };
+        // DocsService does not declare the changes feed extensions, so without
+        // this changestamps would be left unparsed.
+        new ChangelogFeed().declareExtensions(service.getExtensionProfile());
 
+        this.applicationName = applicationName;
         this.host = host;
     }
 
+    /**
+     * Sets where auth tokens are kept between runs. When set, {@link #login}
+     * reuses a saved token instead of making a ClientLogin request.
+     *
+     * @param sessionStore the session store, or null to always log in.
+     */
+    public void setSessionStore(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+    }
+
+    /**
+     * Sets where the copies revalidated by {@link #getDocsListEntry},
+     * {@link #getRevisionsFeed} and {@link #getAclFeed} are kept.
+     *
+     * @param validatorStore the validator store, or null to always fetch in
+     *        full.
+     */
+    public void setValidatorStore(ValidatorStore validatorStore) {
+        this.validatorStore = validatorStore;
+    }
+
+    public ValidatorStore getValidatorStore() {
+        return validatorStore;
+    }
+
     /**
      * Set user credentials based on a username and password.
      *
@@ -155,8 +258,30 @@ public class DocumentList {
             throw new DocumentListException("null login credentials");
         }
 
-        service.setUserCredentials(user, pass);
-        spreadsheetsService.setUserCredentials(user, pass);
+        username = user;
+        password = pass;
+        synchronized (this) {
+            spreadsheetsService = null;
+        }
+
+        String token = null;
+        if (sessionStore != null) {
+            token = sessionStore.getToken(DocsService.DOCS_SERVICE, user);
+        }
+        if (token != null) {
+            service.setUserToken(token);
+            return;
+        }
+        FlightEvents.Auth event = new FlightEvents.Auth();
+        event.begin();
+        String outcome = FlightEvents.FAILED;
+        try {
+            service.setUserCredentials(user, pass);
+            outcome = FlightEvents.OK;
+        } finally {
+            event.finish(DocsService.DOCS_SERVICE, outcome);
+        }
+        saveToken(service, DocsService.DOCS_SERVICE);
     }
 
     /**
@@ -173,8 +298,61 @@ public class DocumentList {
             throw new DocumentListException("null login credentials");
         }
 
+        username = null;
+        password = null;
         service.setAuthSubToken(token);
-        spreadsheetsService.setAuthSubToken(token);
+        synchronized (this) {
+            spreadsheetsService = new GoogleService(SPREADSHEETS_SERVICE_NAME, applicationName);
+            spreadsheetsService.setAuthSubToken(token);
+        }
+    }
+
+    /**
+     * Gets the spreadsheets service, logging it in on first use. It is
+     * necessary for downloading spreadsheets.
+     *
+     * @throws AuthenticationException
+     * @throws DocumentListException
+     */
+    private synchronized GoogleService getSpreadsheetsService() throws AuthenticationException,
+            DocumentListException {
+        if (spreadsheetsService == null) {
+            if (username == null || password == null) {
+                throw new DocumentListException("not logged in");
+            }
+
+            GoogleService spreadsheets = new GoogleService(SPREADSHEETS_SERVICE_NAME,
+                    applicationName);
+            String token = null;
+            if (sessionStore != null) {
+                token = sessionStore.getToken(SPREADSHEETS_SERVICE_NAME, username);
+            }
+            if (token != null) {
+                spreadsheets.setUserToken(token);
+            } else {
+                spreadsheets.setUserCredentials(username, password);
+                saveToken(spreadsheets, SPREADSHEETS_SERVICE_NAME);
+            }
+            spreadsheetsService = spreadsheets;
+        }
+        return spreadsheetsService;
+    }
+
+    /**
+     * Saves the current ClientLogin token of a service to the session store.
+     *
+     * @param googleService the service that has just logged in.
+     * @param serviceName the name the token is saved under.
+     */
+    private void saveToken(GoogleService googleService, String serviceName) {
+        if (sessionStore == null || username == null) {
+            return;
+        }
+
+        Object token = googleService.getAuthTokenFactory().getAuthToken();
+        if (token instanceof UserToken) {
+            sessionStore.putToken(serviceName, username, ((UserToken) token).getValue());
+        }
     }
 
     /**
@@ -231,6 +409,98 @@ public class DocumentList {
      */
     public DocumentListFeed getDocsListFeed(String category) throws IOException,
             MalformedURLException, ServiceException, DocumentListException {
+        return getDocsListFeed(category, null);
+    }
+
+    /**
+     * Gets a feed containing the documents, with only the requested fields of
+     * each entry.
+     *
+     * @param category what types of documents to list, as for
+     *        {@link #getDocsListFeed(String)}.
+     * @param fields a partial-response projection such as
+     *        {@link #FIELDS_SUMMARY}, or null for full entries.
+     *
+     * @throws IOException
+     * @throws MalformedURLException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public DocumentListFeed getDocsListFeed(String category, String fields) throws IOException,
+            MalformedURLException, ServiceException, DocumentListException {
+        URL url = getDocsListUrl(category);
+        if (url == null) {
+            return null;
+        }
+        return getFeed(url, fields);
+    }
+
+    /**
+     * Lists the documents without building feed objects: each page is parsed
+     * as it arrives into {@link EntrySummary} records, which are handed over
+     * one at a time. Only the {@link #FIELDS_SUMMARY} fields are requested.
+     * This takes far less time and memory than {@link #getDocsListFeed} for a
+     * large account.
+     *
+     * @param category what types of documents to list, as for
+     *        {@link #getDocsListFeed(String)}.
+     * @param handler what to hand each entry to, in listing order.
+     *
+     * @return the number of entries listed.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     * @throws DocumentListException if the category is unknown, a page is
+     *         malformed, or the handler fails.
+     */
+    public long streamDocsListFeed(String category, final EntrySummaryReader.Handler handler)
+            throws IOException, ServiceException, DocumentListException {
+        URL url = getDocsListUrl(category);
+        if (url == null) {
+            throw new DocumentListException("unknown category: " + category);
+        }
+        final long[] count = new long[1];
+        EntrySummaryReader.Handler counting = new EntrySummaryReader.Handler() {
+            public void entry(EntrySummary entry) throws DocumentListException {
+                count[0]++;
+                handler.entry(entry);
+            }
+        };
+
+        String next = withFields(url, FIELDS_SUMMARY).toString();
+        while (next != null) {
+            FlightEvents.FeedFetch event = new FlightEvents.FeedFetch();
+            event.begin();
+            String outcome = FlightEvents.FAILED;
+            String page = next;
+            Service.GDataRequest request = service.createFeedRequest(new URL(next));
+            try {
+                request.execute();
+                InputStream inStream = request.getResponseStream();
+                JobManager.closeOnCancel(inStream);
+                try {
+                    next = EntrySummaryReader.read(inStream, counting);
+                } finally {
+                    JobManager.forget(inStream);
+                }
+                outcome = FlightEvents.OK;
+            } finally {
+                request.end();
+                event.finish(page, outcome);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("listing cancelled");
+            }
+        }
+        return count[0];
+    }
+
+    /**
+     * Gets the URL of the listing of a category, or null if the category is
+     * unknown.
+     */
+    private URL getDocsListUrl(String category) throws MalformedURLException,
+            DocumentListException {
         if (category == null) {
             throw new DocumentListException("null category");
         }
@@ -257,8 +527,82 @@ public class DocumentList {
         } else {
             return null;
         }
+        return url;
+    }
+
+    /**
+     * Gets the next page of a paginated feed.
+     *
+     * @param feed a feed returned by one of the listing, search or revision
+     *        methods.
+     *
+     * @return the next page, or null if the feed is the last page.
+     *
+     * @throws IOException
+     * @throws MalformedURLException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    @SuppressWarnings("unchecked")
+    public <F extends BaseFeed<?, ?>> F getNextFeed(F feed) throws IOException,
+            MalformedURLException, ServiceException, DocumentListException {
+        if (feed == null) {
+            throw new DocumentListException("null feed");
+        }
+
+        if (feed.getNextLink() == null) {
+            return null;
+        }
+        String next = feed.getNextLink().getHref();
+        FlightEvents.FeedFetch event = new FlightEvents.FeedFetch();
+        event.begin();
+        String outcome = FlightEvents.FAILED;
+        try {
+            F page = service.getFeed(new URL(next), (Class<F>) feed.getClass());
+            outcome = FlightEvents.OK;
+            return page;
+        } finally {
+            event.finish(next, outcome);
+        }
+    }
+
+    /**
+     * Gets the changes made to any object of the account since a changestamp.
+     * Each object appears once, with its latest change.
+     *
+     * @param startChangestamp the first changestamp to include.
+     *
+     * @throws IOException
+     * @throws MalformedURLException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public ChangelogFeed getChangesFeed(long startChangestamp) throws IOException,
+            MalformedURLException, ServiceException, DocumentListException {
+        String[] parameters = {"start-index=" + startChangestamp};
+        URL url = buildUrl(URL_DEFAULT + URL_CHANGES, parameters);
+
+        return service.getFeed(url, ChangelogFeed.class);
+    }
 
-        return service.getFeed(url, DocumentListFeed.class);
+    /**
+     * Gets the changestamp of the latest change to the account, which is where
+     * a sync that does not need the history should start from.
+     *
+     * @throws IOException
+     * @throws MalformedURLException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public long getLargestChangestamp() throws IOException, MalformedURLException,
+            ServiceException, DocumentListException {
+        URL url = buildUrl(URL_METADATA + URL_DEFAULT);
+        MetadataEntry metadata = service.getEntry(url, MetadataEntry.class);
+        if (metadata.getLargestChangestamp() == null
+                || metadata.getLargestChangestamp().getValue() == null) {
+            throw new DocumentListException("no changestamp in account metadata");
+        }
+        return metadata.getLargestChangestamp().getValue();
     }
 
     /**
@@ -278,7 +622,7 @@ public class DocumentList {
         }
         URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId);
 
-        return service.getEntry(url, DocumentListEntry.class);
+        return getEntry(url, DocumentListEntry.class);
     }
 
     /**
@@ -294,12 +638,32 @@ public class DocumentList {
      */
     public DocumentListFeed getFolderDocsListFeed(String folderResourceId) throws IOException,
             MalformedURLException, ServiceException, DocumentListException {
+        return getFolderDocsListFeed(folderResourceId, null);
+    }
+
+    /**
+     * Gets the feed for all the objects contained in a folder, with only the
+     * requested fields of each entry.
+     *
+     * @param folderResourceId the resource id of the folder to return the feed
+     *        for the contents.
+     * @param fields a partial-response projection such as
+     *        {@link #FIELDS_SUMMARY}, or null for full entries.
+     *
+     * @throws IOException
+     * @throws MalformedURLException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public DocumentListFeed getFolderDocsListFeed(String folderResourceId, String fields)
+            throws IOException, MalformedURLException, ServiceException,
+            DocumentListException {
         if (folderResourceId == null) {
             throw new DocumentListException("null folderResourceId");
         }
         URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderResourceId
                 + URL_FOLDERS);
-        return service.getFeed(url, DocumentListFeed.class);
+        return getFeed(url, fields);
     }
 
     /**
@@ -321,7 +685,7 @@ public class DocumentList {
         URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId
                 + URL_REVISIONS);
 
-        return service.getFeed(url, RevisionFeed.class);
+        return getFeed(url, RevisionFeed.class);
     }
 
     /**
@@ -382,6 +746,27 @@ public class DocumentList {
      */
     public DocumentListFeed search(Map<String, String> searchParameters, String category)
             throws IOException, MalformedURLException, ServiceException, DocumentListException {
+        return search(searchParameters, category, null);
+    }
+
+    /**
+     * Search the documents, and return a feed of docs that match with only the
+     * requested fields of each entry.
+     *
+     * @param searchParameters parameters to be used in searching criteria, as
+     *        for {@link #search(Map, String)}.
+     * @param category define the category to search, or null for all.
+     * @param fields a partial-response projection such as
+     *        {@link #FIELDS_SUMMARY}, or null for full entries.
+     *
+     * @throws IOException
+     * @throws MalformedURLException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public DocumentListFeed search(Map<String, String> searchParameters, String category,
+            String fields) throws IOException, MalformedURLException, ServiceException,
+            DocumentListException {
         if (searchParameters == null) {
             throw new DocumentListException("searchParameters null");
         }
@@ -411,10 +796,120 @@ public class DocumentList {
         for (String key : searchParameters.keySet()) {
             qry.setStringCustomParameter(key, searchParameters.get(key));
         }
+        if (fields != null) {
+            qry.setFields(fields);
+        }
 
         return service.query(qry, DocumentListFeed.class);
     }
 
+    /**
+     * Gets a listing feed, projected to the given fields.
+     */
+    private DocumentListFeed getFeed(URL url, String fields) throws IOException,
+            ServiceException {
+        if (fields != null) {
+            url = withFields(url, fields);
+        }
+        FlightEvents.FeedFetch event = new FlightEvents.FeedFetch();
+        event.begin();
+        String outcome = FlightEvents.FAILED;
+        try {
+            DocumentListFeed feed = service.getFeed(url, DocumentListFeed.class);
+            outcome = FlightEvents.OK;
+            return feed;
+        } finally {
+            event.finish(url.toString(), outcome);
+        }
+    }
+
+    /**
+     * Adds a projection to the given fields to a listing url. The server keeps
+     * the projection in the next links, so following pages are projected too.
+     */
+    private static URL withFields(URL url, String fields) throws IOException {
+        String separator = url.getQuery() == null ? "?" : "&";
+        return new URL(url + separator + "fields=" + URLEncoder.encode(fields, "UTF-8"));
+    }
+
+    /**
+     * Gets an entry, revalidating the stored copy with its etag if there is one.
+     */
+    private <E extends BaseEntry<?>> E getEntry(URL url, Class<E> type) throws IOException,
+            ServiceException {
+        ValidatorStore store = validatorStore;
+        E copy = store == null ? null : store.get(url.toString(), type);
+        FlightEvents.FeedFetch event = new FlightEvents.FeedFetch();
+        event.begin();
+        String outcome = FlightEvents.FAILED;
+        try {
+            if (copy == null || copy.getEtag() == null) {
+                E entry = service.getEntry(url, type);
+                if (store != null) {
+                    store.put(url.toString(), entry);
+                }
+                outcome = FlightEvents.OK;
+                return entry;
+            }
+            try {
+                E entry = service.getEntry(url, type, copy.getEtag());
+                store.put(url.toString(), entry);
+                outcome = FlightEvents.OK;
+                return entry;
+            } catch (NotModifiedException e) {
+                store.recordNotModified();
+                outcome = FlightEvents.NOT_MODIFIED;
+                return copy;
+            }
+        } finally {
+            event.finish(url.toString(), outcome);
+        }
+    }
+
+    /**
+     * Gets a feed, revalidating the stored copy with its etag if there is one.
+     */
+    private <F extends BaseFeed<?, ?>> F getFeed(URL url, Class<F> type) throws IOException,
+            ServiceException {
+        ValidatorStore store = validatorStore;
+        F copy = store == null ? null : store.get(url.toString(), type);
+        FlightEvents.FeedFetch event = new FlightEvents.FeedFetch();
+        event.begin();
+        String outcome = FlightEvents.FAILED;
+        try {
+            if (copy == null || copy.getEtag() == null) {
+                F feed = service.getFeed(url, type);
+                if (store != null) {
+                    store.put(url.toString(), feed);
+                }
+                outcome = FlightEvents.OK;
+                return feed;
+            }
+            try {
+                F feed = service.getFeed(url, type, copy.getEtag());
+                store.put(url.toString(), feed);
+                outcome = FlightEvents.OK;
+                return feed;
+            } catch (NotModifiedException e) {
+                store.recordNotModified();
+                outcome = FlightEvents.NOT_MODIFIED;
+                return copy;
+            }
+        } finally {
+            event.finish(url.toString(), outcome);
+        }
+    }
+
+    /**
+     * Drops the stored copy of an entry or feed after changing it.
+     */
+    private void invalidate(String path) throws MalformedURLException,
+            DocumentListException {
+        if (validatorStore != null) {
+            validatorStore.remove(buildUrl(path).toString());
+        }
+    }
+
     /**
      * Upload a file.
      *
@@ -445,6 +940,284 @@ public class DocumentList {
                 .insert(buildUrl(URL_DEFAULT + URL_DOCLIST_FEED), newDocument);
     }
 
+    /**
+     * Uploads many files with the resumable upload protocol. Each file is sent
+     * in chunks, up to concurrency files at a time. When a chunk fails, the
+     * upload asks the server how much it has and goes on from there, a few
+     * times before giving up on the file. A failed file does not stop the
+     * others, and can be passed in again to resume it.
+     *
+     * @param uploads the files to upload. Those already uploaded are skipped.
+     * @param chunkBytes the size of each request, rounded down to a multiple
+     *        of 256 KB.
+     * @param concurrency the maximum number of files uploading at once.
+     *
+     * @return the result of each upload, in the order of uploads. The entry of
+     *         each uploaded file is set on its FileUpload.
+     *
+     * @throws DocumentListException
+     */
+    public List<BulkResult<FileUpload>> uploadFiles(List<FileUpload> uploads, int chunkBytes,
+            int concurrency) throws DocumentListException {
+        if (uploads == null) {
+            throw new DocumentListException("null uploads");
+        }
+        for (FileUpload upload : uploads) {
+            if (upload == null || upload.getFilepath() == null || upload.getTitle() == null) {
+                throw new DocumentListException("null passed in for required parameters");
+            }
+        }
+        final int chunk = Math.max(UPLOAD_CHUNK_UNIT,
+                chunkBytes / UPLOAD_CHUNK_UNIT * UPLOAD_CHUNK_UNIT);
+
+        final List<BulkResult<FileUpload>> results = new ArrayList<BulkResult<FileUpload>>(
+                Collections.nCopies(uploads.size(), (BulkResult<FileUpload>) null));
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(concurrency, uploads.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < uploads.size(); i++) {
+                final int index = i;
+                final FileUpload upload = uploads.get(i);
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        results.set(index, uploadResumable(upload, chunk));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DocumentListException("interrupted", e);
+        } catch (ExecutionException e) {
+            throw new DocumentListException("upload failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Uploads one file, resuming after failures.
+     */
+    private BulkResult<FileUpload> uploadResumable(FileUpload upload, int chunkBytes) {
+        if (upload.getEntry() != null) {
+            return new BulkResult<FileUpload>(upload, true, 0, "already uploaded");
+        }
+        File file = new File(upload.getFilepath());
+        if (!file.isFile()) {
+            return new BulkResult<FileUpload>(upload, false, 0, "no such file");
+        }
+        long length = file.length();
+        String mimeType;
+        try {
+            mimeType = DocumentListEntry.MediaType.fromFileName(file.getName()).getMimeType();
+        } catch (IllegalArgumentException e) {
+            // Not a type Docs converts, so keep it as a plain file.
+            mimeType = null;
+        }
+
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            byte[] buffer = new byte[(int) Math.max(1, Math.min(chunkBytes, length))];
+            int failures = 0;
+            while (true) {
+                try {
+                    if (upload.getSessionUrl() == null) {
+                        upload.setSession(createUploadSession(upload.getTitle(), mimeType,
+                                length));
+                    } else if (failures > 0) {
+                        queryUploadStatus(upload, length);
+                    }
+                    while (upload.getEntry() == null) {
+                        sendUploadChunk(upload, in, buffer, mimeType, length);
+                    }
+                    return new BulkResult<FileUpload>(upload, true, 201,
+                            upload.getEntry().getResourceId());
+                } catch (ServiceException e) {
+                    int status = Math.max(0, e.getHttpErrorCodeOverride());
+                    if (status == 404 || status == 410) {
+                        // The session expired, so start over in a new one.
+                        upload.setSession(null);
+                    } else if (!isRetryable(status)) {
+                        return new BulkResult<FileUpload>(upload, false, status, e.getMessage());
+                    }
+                    if (++failures > MAX_RETRIES) {
+                        return new BulkResult<FileUpload>(upload, false, status, e.getMessage());
+                    }
+                } catch (IOException e) {
+                    if (++failures > MAX_RETRIES) {
+                        return new BulkResult<FileUpload>(upload, false, 0, e.toString());
+                    }
+                }
+                Thread.sleep(RETRY_MILLIS << (failures - 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BulkResult<FileUpload>(upload, false, 0, "interrupted");
+        } catch (IOException e) {
+            return new BulkResult<FileUpload>(upload, false, 0, e.toString());
+        } catch (DocumentListException e) {
+            return new BulkResult<FileUpload>(upload, false, 0, e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing was written to it.
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a resumable upload session for a file.
+     *
+     * @param mimeType the type of the file, or null to keep it unconverted.
+     *
+     * @return the url to send the file to.
+     */
+    private URL createUploadSession(String title, String mimeType, long length)
+            throws IOException, ServiceException, DocumentListException {
+        URL url = buildUrl(URL_UPLOAD_SESSION + URL_DEFAULT + URL_DOCLIST_FEED,
+                mimeType == null ? new String[] {"convert=false"} : null);
+        byte[] body = ("<?xml version='1.0' encoding='UTF-8'?>"
+                + "<entry xmlns='http://www.w3.org/2005/Atom'><title>"
+                + title.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                + "</title></entry>").getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = openUploadConnection(url, "POST");
+        try {
+            connection.setRequestProperty("Content-Type", "application/atom+xml");
+            connection.setRequestProperty("X-Upload-Content-Type",
+                    mimeType == null ? "application/octet-stream" : mimeType);
+            connection.setRequestProperty("X-Upload-Content-Length", Long.toString(length));
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            out.write(body);
+            out.close();
+
+            int status = connection.getResponseCode();
+            String location = connection.getHeaderField("Location");
+            if (status != 200 || location == null) {
+                throw uploadError(connection, status);
+            }
+            return new URL(url, location);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Sends the next chunk of a file, from where the server has acknowledged
+     * up to.
+     */
+    private void sendUploadChunk(FileUpload upload, RandomAccessFile in, byte[] buffer,
+            String mimeType, long length) throws IOException, ServiceException {
+        long start = upload.getBytesUploaded();
+        int n = (int) Math.min(buffer.length, length - start);
+        in.seek(start);
+        in.readFully(buffer, 0, n);
+
+        HttpURLConnection connection = openUploadConnection(upload.getSessionUrl(), "PUT");
+        try {
+            connection.setRequestProperty("Content-Type",
+                    mimeType == null ? "application/octet-stream" : mimeType);
+            connection.setRequestProperty("Content-Range", length == 0 ? "bytes */0"
+                    : "bytes " + start + "-" + (start + n - 1) + "/" + length);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(n);
+            OutputStream out = connection.getOutputStream();
+            out.write(buffer, 0, n);
+            out.close();
+            readUploadResponse(upload, connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Asks the server how much of an interrupted upload it has.
+     */
+    private void queryUploadStatus(FileUpload upload, long length) throws IOException,
+            ServiceException {
+        HttpURLConnection connection = openUploadConnection(upload.getSessionUrl(), "PUT");
+        try {
+            connection.setRequestProperty("Content-Range", "bytes */" + length);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(0);
+            connection.getOutputStream().close();
+            readUploadResponse(upload, connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Records the progress or the finished entry of an upload from a response
+     * to a chunk or a status query.
+     */
+    private void readUploadResponse(FileUpload upload, HttpURLConnection connection)
+            throws IOException, ServiceException {
+        int status = connection.getResponseCode();
+        if (status == STATUS_RESUME_INCOMPLETE) {
+            // "Range: bytes=0-<last byte received>", absent if nothing arrived.
+            String range = connection.getHeaderField("Range");
+            long received = 0;
+            if (range != null && range.indexOf('-') != -1) {
+                received = Long.parseLong(range.substring(range.indexOf('-') + 1).trim()) + 1;
+            }
+            String location = connection.getHeaderField("Location");
+            upload.setProgress(location == null ? upload.getSessionUrl()
+                    : new URL(upload.getSessionUrl(), location), received);
+        } else if (status == 200 || status == 201) {
+            DocumentListEntry entry = new DocumentListEntry();
+            InputStream in = connection.getInputStream();
+            try {
+                entry.parseAtom(service.getExtensionProfile(), in);
+            } finally {
+                in.close();
+            }
+            upload.setEntry(entry);
+        } else {
+            throw uploadError(connection, status);
+        }
+    }
+
+    private HttpURLConnection openUploadConnection(URL url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        // 308 means "resume incomplete" here, not a redirect.
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestProperty("GData-Version", "3.0");
+        Object token = service.getAuthTokenFactory().getAuthToken();
+        if (token instanceof HttpAuthToken) {
+            connection.setRequestProperty("Authorization",
+                    ((HttpAuthToken) token).getAuthorizationHeader(url, method));
+        }
+        return connection;
+    }
+
+    /**
+     * Tells whether a request that failed with a status may succeed if sent
+     * again. Status 0 means the request did not get a status.
+     */
+    private static boolean isRetryable(int status) {
+        return status == 0 || status == 408 || status == 429 || status >= 500;
+    }
+
+    private static ServiceException uploadError(HttpURLConnection connection, int status) {
+        ServiceException e = new ServiceException("upload request failed: " + status + " "
+                + connection.getHeaderField(0));
+        e.setHttpErrorCodeOverride(status);
+        return e;
+    }
+
     /**
      * Trash an object.
      *
@@ -469,6 +1242,7 @@ public class DocumentList {
         }
 
         service.delete(buildUrl(feedUrl), getDocsListEntry(resourceId).getEtag());
+        invalidate(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId);
     }
 
     /**
@@ -494,6 +1268,7 @@ public class DocumentList {
         URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderResourceId
                 + URL_FOLDERS + "/" + resourceId);
         service.delete(url, getDocsListEntry(resourceId).getEtag());
+        invalidate(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId);
     }
 
     /**
@@ -522,14 +1297,12 @@ public class DocumentList {
 
         try {
             inStream = ms.getInputStream();
+            JobManager.closeOnCancel(inStream);
             outStream = new FileOutputStream(filepath);
-
-            int c;
-            while ((c = inStream.read()) != -1) {
-                outStream.write(c);
-            }
+            copy(inStream, outStream);
         } finally {
             if (inStream != null) {
+                JobManager.forget(inStream);
                 inStream.close();
             }
             if (outStream != null) {
@@ -539,6 +1312,74 @@ public class DocumentList {
         }
     }
 
+    /**
+     * Downloads a file into a buffer from the export buffer pool, instead of
+     * to a file of its own.
+     *
+     * @param exportUrl the full url of the export link to download the file from.
+     *
+     * @return the buffer holding the file, which the caller must close.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public ExportBuffer downloadToBuffer(URL exportUrl) throws IOException,
+            ServiceException, DocumentListException {
+        if (exportUrl == null) {
+            throw new DocumentListException("null exportUrl");
+        }
+
+        MediaContent mc = new MediaContent();
+        mc.setUri(exportUrl.toString());
+        MediaSource ms = service.getMedia(mc);
+
+        ExportBuffer buffer = exportBufferPool.allocate();
+        InputStream inStream = null;
+        try {
+            inStream = ms.getInputStream();
+            JobManager.closeOnCancel(inStream);
+            OutputStream outStream = buffer.getOutputStream();
+            copy(inStream, outStream);
+            outStream.close();
+        } catch (IOException e) {
+            buffer.close();
+            throw e;
+        } catch (RuntimeException e) {
+            buffer.close();
+            throw e;
+        } finally {
+            if (inStream != null) {
+                JobManager.forget(inStream);
+                inStream.close();
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Sets the pool that {@link #downloadToBuffer} takes buffers from.
+     */
+    public void setExportBufferPool(ExportBufferPool exportBufferPool) {
+        this.exportBufferPool = exportBufferPool;
+    }
+
+    /**
+     * Copies a download, stopping between chunks if the thread is interrupted,
+     * as when a background job is cancelled.
+     */
+    private static void copy(InputStream inStream, OutputStream outStream)
+            throws IOException {
+        byte[] chunk = new byte[COPY_BUFFER_BYTES];
+        int n;
+        while ((n = inStream.read(chunk)) != -1) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("download cancelled");
+            }
+            outStream.write(chunk, 0, n);
+        }
+    }
+
     /**
      * Downloads a spreadsheet file.
      *
@@ -561,7 +1402,7 @@ public class DocumentList {
 
         UserToken docsToken = (UserToken) service.getAuthTokenFactory()
                 .getAuthToken();
-        UserToken spreadsheetsToken = (UserToken) spreadsheetsService
+        UserToken spreadsheetsToken = (UserToken) getSpreadsheetsService()
                 .getAuthTokenFactory().getAuthToken();
         service.setUserToken(spreadsheetsToken.getValue());
 
@@ -610,10 +1451,37 @@ public class DocumentList {
 //        URL url = buildUrl(URL_DOWNLOAD + "/documents" + URL_CATEGORY_EXPORT,
 //                parameters);
 
+        downloadFile(getDocumentExportUrl(resourceId, format), filepath);
+    }
+
+    /**
+     * Downloads a document into a buffer.
+     *
+     * @param resourceId the resource id of the object to be downloaded.
+     * @param format format to download the file to, as for
+     *        {@link #downloadDocument(String, String, String)}.
+     *
+     * @return the buffer holding the document, which the caller must close.
+     *
+     * @throws IOException
+     * @throws MalformedURLException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public ExportBuffer downloadDocument(String resourceId, String format)
+            throws IOException, MalformedURLException, ServiceException,
+            DocumentListException {
+        if (resourceId == null || format == null) {
+            throw new DocumentListException("null passed in for required parameters");
+        }
+
+        return downloadToBuffer(getDocumentExportUrl(resourceId, format));
+    }
+
+    private URL getDocumentExportUrl(String resourceId, String format)
+            throws MalformedURLException, DocumentListException {
         String[] parameters = {"id=" + resourceId, "exportFormat=" + format};
-        URL url = buildUrl(URL_DOWNLOAD + "/documents" + URL_CATEGORY_EXPORT,
-                parameters);
-        downloadFile(url, filepath);
+        return buildUrl(URL_DOWNLOAD + "/documents" + URL_CATEGORY_EXPORT, parameters);
     }
 
     /**
@@ -665,7 +1533,133 @@ public class DocumentList {
         doc.setId(buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId).toString());
 
         URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + folderId + URL_FOLDERS);
-        return service.insert(url, doc);
+        DocumentListEntry moved = service.insert(url, doc);
+        invalidate(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId);
+        return moved;
+    }
+
+    /**
+     * Moves, trashes, deletes or unfiles many objects, up to concurrency at a
+     * time. Unlike {@link #trashObject} and {@link #removeFromFolder}, no entry
+     * is fetched for its etag: operations made from listed entries reuse
+     * theirs, and the others apply to whatever the object holds. Failed
+     * requests are retried a few times, and a failed operation does not stop
+     * the others.
+     *
+     * @param operations the changes to apply.
+     * @param concurrency the maximum number of requests in flight.
+     *
+     * @return the result of each operation, in the order of operations.
+     *
+     * @throws DocumentListException
+     */
+    public List<BulkResult<EntryOperation>> applyEntryOperations(
+            List<EntryOperation> operations, int concurrency) throws DocumentListException {
+        if (operations == null) {
+            throw new DocumentListException("null operations");
+        }
+        for (EntryOperation operation : operations) {
+            if (operation == null || operation.getResourceId() == null
+                    || (operation.getFolderId() == null
+                        && (operation.getType() == EntryOperation.Type.MOVE
+                            || operation.getType() == EntryOperation.Type.REMOVE_FROM_FOLDER))) {
+                throw new DocumentListException("null passed in for required parameters");
+            }
+        }
+
+        final List<BulkResult<EntryOperation>> results = new ArrayList<BulkResult<EntryOperation>>(
+                Collections.nCopies(operations.size(), (BulkResult<EntryOperation>) null));
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(concurrency, operations.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < operations.size(); i++) {
+                final int index = i;
+                final EntryOperation operation = operations.get(i);
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        results.set(index, applyWithRetries(operation));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DocumentListException("interrupted", e);
+        } catch (ExecutionException e) {
+            throw new DocumentListException("entry operation failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    private BulkResult<EntryOperation> applyWithRetries(EntryOperation operation) {
+        int failures = 0;
+        try {
+            while (true) {
+                int status;
+                String reason;
+                try {
+                    return new BulkResult<EntryOperation>(operation, true, 200,
+                            applyEntryOperation(operation));
+                } catch (ServiceException e) {
+                    status = Math.max(0, e.getHttpErrorCodeOverride());
+                    reason = e.getMessage();
+                } catch (IOException e) {
+                    status = 0;
+                    reason = e.toString();
+                }
+                // A 412 means the object changed since it was listed, which
+                // sending the same etag again will not fix.
+                if (!isRetryable(status) || ++failures > MAX_RETRIES) {
+                    return new BulkResult<EntryOperation>(operation, false, status, reason);
+                }
+                Thread.sleep(RETRY_MILLIS << (failures - 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BulkResult<EntryOperation>(operation, false, 0, "interrupted");
+        } catch (DocumentListException e) {
+            return new BulkResult<EntryOperation>(operation, false, 0, e.getMessage());
+        }
+    }
+
+    /**
+     * Applies one operation.
+     *
+     * @return a description of what was done.
+     */
+    private String applyEntryOperation(EntryOperation operation) throws IOException,
+            ServiceException, DocumentListException {
+        String entryPath = URL_DEFAULT + URL_DOCLIST_FEED + "/" + operation.getResourceId();
+        // "*" matches any version, as fetching the entry first would.
+        String etag = operation.getEtag() == null ? "*" : operation.getEtag();
+        String done;
+        switch (operation.getType()) {
+            case MOVE:
+                moveObjectToFolder(operation.getResourceId(), operation.getFolderId());
+                return "moved to " + operation.getFolderId();
+            case TRASH:
+                service.delete(buildUrl(entryPath), etag);
+                done = "trashed";
+                break;
+            case DELETE:
+                service.delete(buildUrl(entryPath + "?delete=true"), etag);
+                done = "deleted";
+                break;
+            default:
+                service.delete(buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/"
+                        + operation.getFolderId() + URL_FOLDERS + "/"
+                        + operation.getResourceId()), etag);
+                done = "removed from " + operation.getFolderId();
+                break;
+        }
+        invalidate(entryPath);
+        return done;
     }
 
     /**
@@ -687,7 +1681,7 @@ public class DocumentList {
         URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId
                 + URL_ACL);
 
-        return service.getFeed(url, AclFeed.class);
+        return getFeed(url, AclFeed.class);
     }
 
     /**
@@ -714,7 +1708,9 @@ public class DocumentList {
         entry.setScope(scope);
         URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
 
-        return service.insert(url, entry);
+        AclEntry added = service.insert(url, entry);
+        invalidate(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
+        return added;
     }
 
     /**
@@ -738,7 +1734,9 @@ public class DocumentList {
         URL url = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId
                 + URL_ACL);
 
-        return service.update(url, scope, role);
+        AclEntry changed = service.update(url, scope, role);
+        invalidate(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
+        return changed;
     }
 
     /**
@@ -763,6 +1761,157 @@ public class DocumentList {
                 + URL_ACL + "/" + scope + "%3A" + email);
 
         service.delete(url);
+        invalidate(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
+    }
+
+    /**
+     * Applies many ACL changes with GData batch requests. The operations on
+     * each object are sent in batches of up to {@link #MAX_ACL_BATCH_SIZE}, and
+     * up to pipelineDepth batches are in flight at once. A failed operation or
+     * batch does not stop the others.
+     *
+     * @param operations the ACL changes to apply.
+     * @param pipelineDepth the maximum number of batch requests in flight.
+     *
+     * @return the result of each operation, in the order of operations.
+     *
+     * @throws DocumentListException
+     */
+    public List<BulkResult<AclOperation>> batchAclOperations(List<AclOperation> operations,
+            int pipelineDepth) throws DocumentListException {
+        if (operations == null) {
+            throw new DocumentListException("null operations");
+        }
+        for (AclOperation operation : operations) {
+            if (operation == null || operation.getResourceId() == null
+                    || operation.getScope() == null
+                    || (operation.getRole() == null
+                        && operation.getType() != AclOperation.Type.REMOVE)) {
+                throw new DocumentListException("null passed in for required parameters");
+            }
+        }
+
+        // Each object has its own ACL feed, so a batch only covers one object.
+        Map<String, List<Integer>> byResource = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < operations.size(); i++) {
+            String resourceId = operations.get(i).getResourceId();
+            List<Integer> indexes = byResource.get(resourceId);
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>();
+                byResource.put(resourceId, indexes);
+            }
+            indexes.add(i);
+        }
+
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        for (List<Integer> indexes : byResource.values()) {
+            for (int i = 0; i < indexes.size(); i += MAX_ACL_BATCH_SIZE) {
+                batches.add(indexes.subList(i, Math.min(indexes.size(), i + MAX_ACL_BATCH_SIZE)));
+            }
+        }
+
+        final List<BulkResult<AclOperation>> results = new ArrayList<BulkResult<AclOperation>>(
+                Collections.nCopies(operations.size(), (BulkResult<AclOperation>) null));
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(pipelineDepth, batches.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final List<Integer> batch : batches) {
+                final List<AclOperation> ops = new ArrayList<AclOperation>();
+                for (int index : batch) {
+                    ops.add(operations.get(index));
+                }
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        List<BulkResult<AclOperation>> batchResults = sendAclBatch(ops);
+                        for (int i = 0; i < batch.size(); i++) {
+                            results.set(batch.get(i), batchResults.get(i));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DocumentListException("interrupted", e);
+        } catch (ExecutionException e) {
+            throw new DocumentListException("ACL batch failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Sends one batch of ACL operations on a single object.
+     *
+     * @return the result of each operation, in the order of operations.
+     */
+    private List<BulkResult<AclOperation>> sendAclBatch(List<AclOperation> operations) {
+        String resourceId = operations.get(0).getResourceId();
+        AclFeed response;
+        try {
+            String aclUrl = buildUrl(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId
+                    + URL_ACL).toString();
+            AclFeed request = new AclFeed();
+            for (int i = 0; i < operations.size(); i++) {
+                AclOperation operation = operations.get(i);
+                AclEntry entry = new AclEntry();
+                entry.setScope(operation.getScope());
+                if (operation.getRole() != null) {
+                    entry.setRole(operation.getRole());
+                }
+                if (operation.getType() == AclOperation.Type.ADD) {
+                    BatchUtils.setBatchOperationType(entry, BatchOperationType.INSERT);
+                } else {
+                    entry.setId(aclUrl + "/" + operation.getEntryId());
+                    BatchUtils.setBatchOperationType(entry,
+                            operation.getType() == AclOperation.Type.CHANGE
+                                    ? BatchOperationType.UPDATE : BatchOperationType.DELETE);
+                }
+                BatchUtils.setBatchId(entry, Integer.toString(i));
+                request.getEntries().add(entry);
+            }
+            invalidate(URL_DEFAULT + URL_DOCLIST_FEED + "/" + resourceId + URL_ACL);
+            response = service.batch(new URL(aclUrl + URL_BATCH), request);
+        } catch (ServiceException e) {
+            return failAll(operations, Math.max(0, e.getHttpErrorCodeOverride()),
+                    e.getMessage());
+        } catch (IOException e) {
+            return failAll(operations, 0, e.toString());
+        } catch (DocumentListException e) {
+            return failAll(operations, 0, e.getMessage());
+        }
+
+        Map<String, AclEntry> byBatchId = new HashMap<String, AclEntry>();
+        for (AclEntry entry : response.getEntries()) {
+            byBatchId.put(BatchUtils.getBatchId(entry), entry);
+        }
+        List<BulkResult<AclOperation>> results = new ArrayList<BulkResult<AclOperation>>();
+        for (int i = 0; i < operations.size(); i++) {
+            AclEntry entry = byBatchId.get(Integer.toString(i));
+            BatchStatus status = entry == null ? null : BatchUtils.getBatchStatus(entry);
+            if (status == null) {
+                results.add(new BulkResult<AclOperation>(operations.get(i), false, 0,
+                        "no result in batch response"));
+            } else {
+                results.add(new BulkResult<AclOperation>(operations.get(i),
+                        BatchUtils.isSuccess(entry), status.getCode(), status.getReason()));
+            }
+        }
+        return results;
+    }
+
+    private static List<BulkResult<AclOperation>> failAll(List<AclOperation> operations,
+            int statusCode, String reason) {
+        List<BulkResult<AclOperation>> results = new ArrayList<BulkResult<AclOperation>>();
+        for (AclOperation operation : operations) {
+            results.add(new BulkResult<AclOperation>(operation, false, statusCode, reason));
+        }
+        return results;
     }
 
     /**
@@ -837,6 +1986,18 @@ public class DocumentList {
         }
     }
 
+    /**
+     * Gets the scheme and host part of a URL, defaulting to https.
+     *
+     * @param domain the domain of the server, with or without a scheme.
+     */
+    private static String getBaseUrl(String domain) {
+        if (domain.indexOf("://") != -1) {
+            return domain;
+        }
+        return "https://" + domain;
+    }
+
     /**
      * Builds a URL from a patch.
      *
@@ -888,7 +2049,7 @@ public class DocumentList {
         }
 
         StringBuffer url = new StringBuffer();
-        url.append("https://" + domain + URL_FEED + path);
+        url.append(getBaseUrl(domain) + URL_FEED + path);
 
         if (parameters != null && parameters.length > 0) {
             url.append("?");
@@ -920,7 +2081,7 @@ public class DocumentList {
         }
 
         StringBuffer url = new StringBuffer();
-        url.append("https://" + domain + URL_FEED + path);
+        url.append(getBaseUrl(domain) + URL_FEED + path);
 
         if (parameters != null && parameters.size() > 0) {
             Set<Map.Entry<String, String>> params = parameters.entrySet();
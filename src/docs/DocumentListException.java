@@ -27,4 +27,8 @@ public class DocumentListException extends Exception {
     public DocumentListException(String msg) {
         super(msg);
     }
+
+    public DocumentListException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
\ No newline at end of file
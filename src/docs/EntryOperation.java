@@ -0,0 +1,104 @@
+package docs;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+
+/**
+ * One change to where an object is filed, for use with
+ * {@link DocumentList#applyEntryOperations}.
+ *
+ * Operations made from an entry, for example one from a listing feed, reuse
+ * its etag, so the change fails if the object changed since it was listed.
+ * Operations made from a resource id apply whatever the object holds.
+ */
+public class EntryOperation {
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        MOVE, TRASH, DELETE, REMOVE_FROM_FOLDER
+    }
+
+    private final Type type;
+    private final String resourceId;
+    private final String folderId;
+    private final String etag;
+
+    private EntryOperation(Type type, String resourceId, String folderId, String etag) {
+        this.type = type;
+        this.resourceId = resourceId;
+        this.folderId = folderId;
+        this.etag = etag;
+    }
+
+    /**
+     * Creates an operation that files an object in a folder, like
+     * {@link DocumentList#moveObjectToFolder}.
+     */
+    public static EntryOperation move(String resourceId, String folderId) {
+        return new EntryOperation(Type.MOVE, resourceId, folderId, null);
+    }
+
+    /**
+     * Creates an operation that moves an object to the trash, like
+     * {@link DocumentList#trashObject} without delete.
+     */
+    public static EntryOperation trash(DocumentListEntry entry) {
+        return new EntryOperation(Type.TRASH, entry.getResourceId(), null, entry.getEtag());
+    }
+
+    public static EntryOperation trash(String resourceId) {
+        return new EntryOperation(Type.TRASH, resourceId, null, null);
+    }
+
+    /**
+     * Creates an operation that deletes an object for good, like
+     * {@link DocumentList#trashObject} with delete.
+     */
+    public static EntryOperation delete(DocumentListEntry entry) {
+        return new EntryOperation(Type.DELETE, entry.getResourceId(), null, entry.getEtag());
+    }
+
+    public static EntryOperation delete(String resourceId) {
+        return new EntryOperation(Type.DELETE, resourceId, null, null);
+    }
+
+    /**
+     * Creates an operation that takes an object out of a folder, like
+     * {@link DocumentList#removeFromFolder}.
+     */
+    public static EntryOperation removeFromFolder(DocumentListEntry entry, String folderId) {
+        return new EntryOperation(Type.REMOVE_FROM_FOLDER, entry.getResourceId(), folderId,
+                entry.getEtag());
+    }
+
+    public static EntryOperation removeFromFolder(String resourceId, String folderId) {
+        return new EntryOperation(Type.REMOVE_FROM_FOLDER, resourceId, folderId, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    /**
+     * Gets the resource id of the folder, or null for trash and delete.
+     */
+    public String getFolderId() {
+        return folderId;
+    }
+
+    /**
+     * Gets the etag the object must still have, or null for any.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + resourceId + (folderId == null ? "" : " in " + folderId);
+    }
+}
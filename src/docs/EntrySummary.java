@@ -0,0 +1,93 @@
+package docs;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The fields of a listed entry that listings and migrations read, as parsed by
+ * {@link EntrySummaryReader}. It is much smaller than a
+ * {@link com.google.gdata.data.docs.DocumentListEntry} and takes no object
+ * model to build.
+ *
+ * Summaries are immutable.
+ */
+public class EntrySummary {
+    private final String resourceId;
+    private final String etag;
+    private final String type;
+    private final String title;
+    private final long updated;
+    private final long lastViewed;
+    private final long size;
+    private final List<String> parentIds;
+    private final List<String> parentTitles;
+
+    /**
+     * Constructor.
+     *
+     * @param resourceId the resource id, such as "document:dh3bw3j_0f7xmjhd8".
+     * @param etag the etag, or null.
+     * @param type the kind, such as "document" or "folder", or null.
+     * @param title the title.
+     * @param updated when the entry was last updated, in milliseconds since
+     *        the epoch, or 0.
+     * @param lastViewed when the entry was last viewed, or 0.
+     * @param size the quota bytes used, or 0.
+     * @param parentIds the resource ids of the folders the entry is in.
+     * @param parentTitles the titles of those folders, in the same order.
+     */
+    public EntrySummary(String resourceId, String etag, String type, String title,
+                        long updated, long lastViewed, long size, List<String> parentIds,
+                        List<String> parentTitles) {
+        this.resourceId = resourceId;
+        this.etag = etag;
+        this.type = type;
+        this.title = title;
+        this.updated = updated;
+        this.lastViewed = lastViewed;
+        this.size = size;
+        this.parentIds = Collections.unmodifiableList(parentIds);
+        this.parentTitles = Collections.unmodifiableList(parentTitles);
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public long getLastViewed() {
+        return lastViewed;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public List<String> getParentIds() {
+        return parentIds;
+    }
+
+    public List<String> getParentTitles() {
+        return parentTitles;
+    }
+
+    @Override
+    public String toString() {
+        return title + " (" + resourceId + ")";
+    }
+}
@@ -0,0 +1,194 @@
+package docs;
+
+import com.google.gdata.data.DateTime;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads a page of a listing feed straight from the Atom XML into
+ * {@link EntrySummary} records, handing each one over as soon as its closing
+ * tag is read. Nothing but the current entry is kept, and elements the
+ * summary does not hold are skipped without being parsed into objects.
+ *
+ * The reader has no state of its own, and may be used from several threads
+ * at once.
+ */
+public class EntrySummaryReader {
+    private static final String ATOM = "http://www.w3.org/2005/Atom";
+    private static final String GD = "http://schemas.google.com/g/2005";
+    private static final String KIND_SCHEME = "http://schemas.google.com/g/2005#kind";
+    private static final String PARENT_REL = "http://schemas.google.com/docs/2007#parent";
+
+    // Factories are not promised to be thread-safe, so each thread keeps one.
+    private static final ThreadLocal<XMLInputFactory> FACTORIES =
+            new ThreadLocal<XMLInputFactory>() {
+                protected XMLInputFactory initialValue() {
+                    XMLInputFactory factory = XMLInputFactory.newInstance();
+                    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+                    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+                    return factory;
+                }
+            };
+
+    /**
+     * Receives the entries of a feed as they are read.
+     */
+    public interface Handler {
+        void entry(EntrySummary entry) throws DocumentListException;
+    }
+
+    private EntrySummaryReader() {
+    }
+
+    /**
+     * Reads a page of a feed.
+     *
+     * @param in the feed XML. It is not closed.
+     * @param handler what to hand each entry to, in feed order.
+     *
+     * @return the URL of the next page, or null if this is the last one.
+     *
+     * @throws DocumentListException if the XML is malformed, or the handler
+     *         fails.
+     */
+    public static String read(InputStream in, Handler handler) throws DocumentListException {
+        String next = null;
+        XMLStreamReader xml = null;
+        try {
+            xml = FACTORIES.get().createXMLStreamReader(in);
+            xml.nextTag();
+            while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (is(xml, ATOM, "entry")) {
+                    handler.entry(readEntry(xml));
+                } else if (is(xml, ATOM, "link") && "next".equals(getAttribute(xml, "rel"))) {
+                    next = getAttribute(xml, "href");
+                    skip(xml);
+                } else {
+                    skip(xml);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new DocumentListException("malformed feed: " + e.getMessage(), e);
+        } finally {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException e) {
+                    // Only releases the parser; the stream is the caller's.
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Reads an entry, from its start tag through its end tag.
+     */
+    private static EntrySummary readEntry(XMLStreamReader xml) throws XMLStreamException {
+        String etag = xml.getAttributeValue(GD, "etag");
+        String resourceId = null;
+        String type = null;
+        String title = "";
+        long updated = 0;
+        long lastViewed = 0;
+        long size = 0;
+        List<String> parentIds = new ArrayList<String>();
+        List<String> parentTitles = new ArrayList<String>();
+
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (is(xml, GD, "resourceId")) {
+                resourceId = xml.getElementText().trim();
+            } else if (is(xml, ATOM, "title")) {
+                title = xml.getElementText();
+            } else if (is(xml, ATOM, "updated")) {
+                updated = parseTime(xml.getElementText());
+            } else if (is(xml, GD, "lastViewed")) {
+                lastViewed = parseTime(xml.getElementText());
+            } else if (is(xml, GD, "quotaBytesUsed")) {
+                size = parseLong(xml.getElementText());
+            } else if (is(xml, ATOM, "category")
+                    && KIND_SCHEME.equals(getAttribute(xml, "scheme"))) {
+                type = getAttribute(xml, "label");
+                String term = getAttribute(xml, "term");
+                if (type == null && term != null) {
+                    type = term.substring(term.indexOf('#') + 1);
+                }
+                skip(xml);
+            } else if (is(xml, ATOM, "link") && PARENT_REL.equals(getAttribute(xml, "rel"))) {
+                String href = getAttribute(xml, "href");
+                if (href != null) {
+                    parentIds.add(getResourceId(href));
+                    String parentTitle = getAttribute(xml, "title");
+                    parentTitles.add(parentTitle == null ? "" : parentTitle);
+                }
+                skip(xml);
+            } else {
+                skip(xml);
+            }
+        }
+        return new EntrySummary(resourceId, etag, type, title, updated, lastViewed, size,
+                parentIds, parentTitles);
+    }
+
+    /**
+     * Skips the element at its start tag, through its end tag.
+     */
+    private static void skip(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static boolean is(XMLStreamReader xml, String namespace, String name) {
+        return name.equals(xml.getLocalName()) && namespace.equals(xml.getNamespaceURI());
+    }
+
+    private static String getAttribute(XMLStreamReader xml, String name) {
+        return xml.getAttributeValue(null, name);
+    }
+
+    /**
+     * Gets the resource id at the end of an entry URL, such as
+     * "folder:0B1" from ".../private/full/folder%3A0B1".
+     */
+    private static String getResourceId(String href) {
+        String id = href.substring(href.lastIndexOf('/') + 1);
+        try {
+            return URLDecoder.decode(id, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every Java platform has UTF-8.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long parseTime(String text) {
+        try {
+            return DateTime.parseDateTime(text.trim()).getValue();
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseLong(String text) {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
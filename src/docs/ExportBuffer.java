@@ -0,0 +1,178 @@
+package docs;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The downloaded bytes of one export. Small exports live in a pooled heap
+ * array; larger ones spill to a temp file that is memory-mapped for reading.
+ *
+ * Write the export through {@link #getOutputStream()}, then read it with
+ * {@link #getInputStream()} or {@link #decode}, and close the buffer when done.
+ * A buffer is used by one thread at a time.
+ */
+public class ExportBuffer implements Closeable {
+    private final ExportBufferPool pool;
+    private byte[] array;
+    private int length;
+
+    private File spillFile;
+    private RandomAccessFile spill;
+    private MappedByteBuffer mapped;
+    private long size;
+    private boolean finished;
+
+    ExportBuffer(ExportBufferPool pool, byte[] array) {
+        this.pool = pool;
+        this.array = array;
+    }
+
+    /**
+     * Gets a stream to write the export to. Closing it finishes writing.
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                append(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                finish();
+            }
+        };
+    }
+
+    /**
+     * Gets the number of bytes written.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Tells whether the export outgrew the heap buffer and lives in a mapped
+     * file.
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Gets a stream over the export.
+     *
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        finish();
+        if (mapped == null) {
+            return new ByteArrayInputStream(array, 0, length);
+        }
+        final ByteBuffer bytes = mapped.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return bytes.hasRemaining() ? bytes.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!bytes.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, bytes.remaining());
+                bytes.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return bytes.remaining();
+            }
+        };
+    }
+
+    /**
+     * Decodes the export as text. Spilled exports are decoded straight from
+     * the mapped file, without first copying their bytes onto the heap.
+     *
+     * @param charset the charset of the export.
+     *
+     * @throws IOException
+     */
+    public String decode(Charset charset) throws IOException {
+        finish();
+        if (mapped == null) {
+            return new String(array, 0, length, charset);
+        }
+        return charset.decode(mapped.duplicate()).toString();
+    }
+
+    /**
+     * Returns the heap array to the pool and deletes any spill file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (array != null) {
+            pool.release(array);
+            array = null;
+        }
+        mapped = null;
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+        if (spillFile != null) {
+            // On most systems a mapping stays readable after its file is
+            // deleted, and the space is freed once the mapping is collected.
+            spillFile.delete();
+        }
+    }
+
+    private void append(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("export buffer already finished");
+        }
+        if (spill == null && length + len <= array.length) {
+            System.arraycopy(b, off, array, length, len);
+            length += len;
+        } else {
+            if (spill == null) {
+                spillFile = File.createTempFile("export", ".spill", pool.getTempDirectory());
+                spill = new RandomAccessFile(spillFile, "rw");
+                spill.write(array, 0, length);
+            }
+            spill.write(b, off, len);
+        }
+        size += len;
+    }
+
+    private void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (spill != null) {
+            FileChannel channel = spill.getChannel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // The heap array is no longer needed once the export is on disk.
+            pool.release(array);
+            array = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package docs;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands out {@link ExportBuffer}s for downloads. Each buffer starts in a heap
+ * array taken from the pool, so small exports cost no allocation once the pool
+ * is warm. An export that outgrows the array spills to a memory-mapped temp
+ * file, so the heap held per download never exceeds the array size.
+ */
+public class ExportBufferPool {
+    public static final int DEFAULT_HEAP_BUFFER_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 16;
+
+    private final int heapBufferBytes;
+    private final BlockingQueue<byte[]> pooled;
+    private final File tempDirectory;
+
+    /**
+     * Constructor with the default sizes, spilling to the default temp
+     * directory.
+     */
+    public ExportBufferPool() {
+        this(DEFAULT_HEAP_BUFFER_BYTES, DEFAULT_MAX_POOLED, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param heapBufferBytes the size of each heap buffer, which is the
+     *        largest export kept on the heap.
+     * @param maxPooled the most heap buffers kept for reuse.
+     * @param tempDirectory where spill files go, or null for the default temp
+     *        directory.
+     */
+    public ExportBufferPool(int heapBufferBytes, int maxPooled, File tempDirectory) {
+        this.heapBufferBytes = heapBufferBytes;
+        this.pooled = new ArrayBlockingQueue<byte[]>(Math.max(1, maxPooled));
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Gets an empty buffer. It must be closed once read, to return its heap
+     * array and delete any spill file.
+     */
+    public ExportBuffer allocate() {
+        byte[] array = pooled.poll();
+        if (array == null) {
+            array = new byte[heapBufferBytes];
+        }
+        return new ExportBuffer(this, array);
+    }
+
+    File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    void release(byte[] array) {
+        // Full pools drop the array for the collector.
+        pooled.offer(array);
+    }
+}
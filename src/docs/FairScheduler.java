@@ -0,0 +1,240 @@
+package docs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the tasks of many accounts on one shared pool of worker threads.
+ *
+ * Each account has its own queue. Workers serve the accounts round-robin, one
+ * task at a time, so an account with a huge backlog only gets its turn like
+ * every other account instead of starving them. An account may also be given
+ * a rate limit, in which case its tasks are started no faster than that and
+ * the workers serve other accounts in the meantime.
+ */
+public class FairScheduler {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Account> accounts = new HashMap<String, Account>();
+    // Accounts in the order they are served; the next one to serve is first.
+    private final List<Account> rotation = new ArrayList<Account>();
+    private int running;
+    private boolean shutdown;
+
+    /**
+     * The queue and rate limit of one account.
+     */
+    private static class Account {
+        final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        long intervalNanos;
+        long nextStartNanos = System.nanoTime();
+        int completed;
+        int failed;
+    }
+
+    /**
+     * Constructor. The worker threads start at once.
+     *
+     * @param threads the number of worker threads shared by all accounts.
+     */
+    public FairScheduler(int threads) {
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "fair-worker-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Limits how fast the tasks of an account are started.
+     *
+     * @param account the account.
+     * @param tasksPerSecond the most tasks started per second, or 0 for no
+     *        limit.
+     */
+    public void setRateLimit(String account, double tasksPerSecond) {
+        lock.lock();
+        try {
+            getAccount(account).intervalNanos = tasksPerSecond > 0
+                    ? (long) (TimeUnit.SECONDS.toNanos(1) / tasksPerSecond) : 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a task for an account. Tasks may submit further tasks. A task
+     * submitted from a job of a {@link JobManager} runs as part of that job.
+     */
+    public void submit(String account, Runnable task) {
+        Runnable work = JobManager.inCurrentJob(task);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException("scheduler is shut down");
+            }
+            getAccount(account).tasks.add(work);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every queue is empty and no task is running.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitIdle() throws InterruptedException {
+        lock.lock();
+        try {
+            while (running > 0 || hasQueuedTasks()) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the workers once their current tasks are done. Queued tasks are
+     * dropped.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks of an account that finished normally.
+     */
+    public int getCompletedCount(String account) {
+        lock.lock();
+        try {
+            return getAccount(account).completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks of an account that threw.
+     */
+    public int getFailedCount(String account) {
+        lock.lock();
+        try {
+            return getAccount(account).failed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Account account;
+            Runnable task;
+            lock.lock();
+            try {
+                account = null;
+                while (account == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    long waitNanos = Long.MAX_VALUE;
+                    long now = System.nanoTime();
+                    for (int i = 0; i < rotation.size(); i++) {
+                        Account candidate = rotation.get(i);
+                        if (candidate.tasks.isEmpty()) {
+                            continue;
+                        }
+                        long delay = candidate.nextStartNanos - now;
+                        if (delay <= 0) {
+                            account = candidate;
+                            // Served accounts go to the back of the line.
+                            rotation.remove(i);
+                            rotation.add(candidate);
+                            break;
+                        }
+                        waitNanos = Math.min(waitNanos, delay);
+                    }
+                    if (account == null) {
+                        try {
+                            if (waitNanos == Long.MAX_VALUE) {
+                                changed.await();
+                            } else {
+                                changed.awaitNanos(waitNanos);
+                            }
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                task = account.tasks.poll();
+                account.nextStartNanos = Math.max(account.nextStartNanos, System.nanoTime())
+                        + account.intervalNanos;
+                running++;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean ok = false;
+            try {
+                task.run();
+                ok = true;
+            } catch (Throwable t) {
+                // Counted below; one task's failure, even an Error, must not
+                // stop the worker and shrink the pool.
+                t.printStackTrace();
+            } finally {
+                lock.lock();
+                try {
+                    running--;
+                    if (ok) {
+                        account.completed++;
+                    } else {
+                        account.failed++;
+                    }
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private Account getAccount(String name) {
+        Account account = accounts.get(name);
+        if (account == null) {
+            account = new Account();
+            accounts.put(name, account);
+            rotation.add(account);
+        }
+        return account;
+    }
+
+    private boolean hasQueuedTasks() {
+        for (Account account : rotation) {
+            if (!account.tasks.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
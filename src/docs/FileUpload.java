@@ -0,0 +1,84 @@
+package docs;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+
+import java.net.URL;
+
+/**
+ * One file to upload with {@link DocumentList#uploadFiles}.
+ *
+ * An upload remembers its upload session and how much of the file the server
+ * has acknowledged. If it fails, passing it to uploadFiles again resumes from
+ * there rather than sending the whole file again.
+ */
+public class FileUpload {
+    private final String filepath;
+    private final String title;
+
+    private volatile URL sessionUrl;
+    private volatile long bytesUploaded;
+    private volatile DocumentListEntry entry;
+
+    /**
+     * Constructor.
+     *
+     * @param filepath path to the file to upload.
+     * @param title title to use for the uploaded file.
+     */
+    public FileUpload(String filepath, String title) {
+        this.filepath = filepath;
+        this.title = title;
+    }
+
+    public String getFilepath() {
+        return filepath;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Gets the number of bytes the server has acknowledged.
+     */
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * Gets the entry of the uploaded file, or null until the upload is done.
+     */
+    public DocumentListEntry getEntry() {
+        return entry;
+    }
+
+    URL getSessionUrl() {
+        return sessionUrl;
+    }
+
+    /**
+     * Starts over in a new upload session, or with none if null.
+     */
+    void setSession(URL sessionUrl) {
+        this.sessionUrl = sessionUrl;
+        this.bytesUploaded = 0;
+    }
+
+    /**
+     * Records the progress the server reported, which may also move the
+     * session.
+     */
+    void setProgress(URL sessionUrl, long bytesUploaded) {
+        this.sessionUrl = sessionUrl;
+        this.bytesUploaded = bytesUploaded;
+    }
+
+    void setEntry(DocumentListEntry entry) {
+        this.entry = entry;
+    }
+
+    @Override
+    public String toString() {
+        return title + " (" + filepath + ")";
+    }
+}
@@ -0,0 +1,140 @@
+package docs;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for each stage of a migration and each remote
+ * call, so that a recording shows which document a stall belongs to next to
+ * the GC and thread activity around it.
+ *
+ * Events are timed like this:
+ *
+ *     FlightEvents.Export event = new FlightEvents.Export();
+ *     event.begin();
+ *     ...
+ *     event.finish(resourceId, bytes, outcome);
+ *
+ * While no recording has the event enabled, finish only checks a flag and the
+ * event is never filled in or written, so the events cost next to nothing
+ * when recording is off. See {@link FlightRecording} to start a recording.
+ */
+public class FlightEvents {
+    /** The outcome of a call that did what was asked. */
+    public static final String OK = "ok";
+    /** The outcome of a call that threw. */
+    public static final String FAILED = "failed";
+    /** The outcome of a wiki save skipped because the page was up to date. */
+    public static final String UNCHANGED = "unchanged";
+    /** The outcome of a fetch answered from the stored copy. */
+    public static final String NOT_MODIFIED = "not modified";
+    /** The outcome of a login that reused a saved session. */
+    public static final String RESTORED = "restored";
+
+    private FlightEvents() {
+    }
+
+    /**
+     * The fields every event carries.
+     */
+    @Category({"Google Docs Migration"})
+    @StackTrace(false)
+    public abstract static class Stage extends Event {
+        @Label("Resource Id")
+        @Description("The document the call was for, if it was for one")
+        String resourceId;
+
+        @Label("Bytes")
+        @Description("The bytes or characters the call moved or handled, if known")
+        @DataAmount
+        long bytes;
+
+        @Label("Outcome")
+        String outcome;
+
+        /**
+         * Ends the event and writes it, if a recording wants it.
+         *
+         * @param resourceId the document, or null.
+         * @param bytes the amount handled, or 0 if unknown.
+         * @param outcome {@link #OK}, {@link #FAILED} or another outcome.
+         */
+        public void finish(String resourceId, long bytes, String outcome) {
+            end();
+            if (shouldCommit()) {
+                this.resourceId = resourceId;
+                this.bytes = bytes;
+                this.outcome = outcome;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * The fields of events about a wiki page.
+     */
+    public abstract static class WikiStage extends Stage {
+        @Label("Page")
+        String page;
+
+        public void finish(String resourceId, String page, long bytes, String outcome) {
+            this.page = page;
+            finish(resourceId, bytes, outcome);
+        }
+    }
+
+    @Name("docs.Export")
+    @Label("Export")
+    @Description("Downloading a document from Google Docs")
+    public static class Export extends Stage {
+    }
+
+    @Name("docs.Conversion")
+    @Label("Conversion")
+    @Description("Converting exported HTML to wiki markup")
+    public static class Conversion extends Stage {
+    }
+
+    @Name("docs.WikiGet")
+    @Label("Wiki Get")
+    @Description("Reading a wiki page")
+    public static class WikiGet extends WikiStage {
+    }
+
+    @Name("docs.WikiSave")
+    @Label("Wiki Save")
+    @Description("Saving a wiki page")
+    public static class WikiSave extends WikiStage {
+    }
+
+    @Name("docs.FeedFetch")
+    @Label("Feed Fetch")
+    @Description("Fetching a page of a Google Docs feed, or an entry")
+    public static class FeedFetch extends Stage {
+        @Label("URL")
+        String url;
+
+        public void finish(String url, String outcome) {
+            this.url = url;
+            finish(null, 0, outcome);
+        }
+    }
+
+    @Name("docs.Auth")
+    @Label("Authentication")
+    @Description("Logging in to Google Docs or the wiki")
+    public static class Auth extends Stage {
+        @Label("Service")
+        String service;
+
+        public void finish(String service, String outcome) {
+            this.service = service;
+            finish(null, 0, outcome);
+        }
+    }
+}
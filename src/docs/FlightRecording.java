@@ -0,0 +1,88 @@
+package docs;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.ParseException;
+
+/**
+ * Records a run with the JDK Flight Recorder, including the
+ * {@link FlightEvents} of every migration stage, into a file that is written
+ * when the program exits. Open it with JDK Mission Control or
+ * "jfr print --categories 'Google Docs Migration'".
+ */
+public class FlightRecording {
+    /** The built-in settings, with little overhead. */
+    public static final String DEFAULT_SETTINGS = "default";
+
+    private FlightRecording() {
+    }
+
+    /**
+     * Starts recording until the program exits.
+     *
+     * @param path the file to write the recording to.
+     * @param settings the name of a built-in settings profile, "default" or
+     *        "profile", or the path of a .jfc settings file; null for
+     *        {@link #DEFAULT_SETTINGS}.
+     *
+     * @return the recording, already started.
+     *
+     * @throws IOException if the recording file or settings file cannot be
+     *         used.
+     * @throws DocumentListException if the settings are unknown or malformed.
+     */
+    public static Recording start(String path, String settings) throws IOException,
+            DocumentListException {
+        if (settings == null) {
+            settings = DEFAULT_SETTINGS;
+        }
+        Configuration configuration;
+        try {
+            if (new File(settings).isFile()) {
+                configuration = Configuration.create(Paths.get(settings));
+            } else {
+                configuration = Configuration.getConfiguration(settings);
+            }
+        } catch (ParseException e) {
+            throw new DocumentListException("bad recording settings " + settings + ": "
+                    + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new DocumentListException("unknown recording settings: " + settings, e);
+        }
+
+        final Recording recording = new Recording(configuration);
+        recording.setName("docs");
+        // Whatever the settings say, every migration event is recorded in full.
+        recording.enable(FlightEvents.Export.class).withoutThreshold();
+        recording.enable(FlightEvents.Conversion.class).withoutThreshold();
+        recording.enable(FlightEvents.WikiGet.class).withoutThreshold();
+        recording.enable(FlightEvents.WikiSave.class).withoutThreshold();
+        recording.enable(FlightEvents.FeedFetch.class).withoutThreshold();
+        recording.enable(FlightEvents.Auth.class).withoutThreshold();
+        recording.setToDisk(true);
+        recording.setDestination(Paths.get(path));
+        recording.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                // The recorder's own shutdown hook may have stopped it and
+                // written the destination file already; stopping writes it
+                // otherwise.
+                try {
+                    if (recording.getState() == RecordingState.RUNNING) {
+                        recording.stop();
+                    }
+                    recording.close();
+                } catch (IllegalStateException e) {
+                    // Stopped by the recorder in the meantime.
+                }
+            }
+        }, "flight-recording"));
+        return recording;
+    }
+}
@@ -16,11 +16,9 @@
 
 package docs;
 
-import info.bliki.html.HTML2WikiConverter;
-import info.bliki.html.wikipedia.ToWikipedia;
-import net.sourceforge.jwbf.core.contentRep.Article;
 import net.sourceforge.jwbf.mediawiki.bots.MediaWikiBot;
 import sample.util.SimpleCommandLineParser;
+import com.google.gdata.data.DateTime;
 import com.google.gdata.data.Link;
 import com.google.gdata.data.acl.AclEntry;
 import com.google.gdata.data.docs.DocumentListEntry;
@@ -31,16 +29,26 @@ import com.google.gdata.util.AuthenticationException;
 import com.google.gdata.util.ServiceException;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,18 +65,94 @@ import java.util.logging.Logger;
 public class GoogleDocMigrationDemo {
     private DocumentList documentList;
     private PrintStream out;
-    private MediaWikiBot bot;
+
+    private final String wikiUrl;
+    private final String wikiUser;
+    private final String wikiPassword;
+    private final SessionStore sessionStore;
+
+    // Logins run in the background so that the prompt comes up at once, and so
+    // that the Google and wiki logins overlap when a command needs both.
+    private final ExecutorService loginExecutor = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "login");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private Future<?> docsLogin;
+    private Future<MediaWikiBot> wikiLogin;
+    private WikiMigrator migrator;
+    private WikiMigrator exporter;
+    private DocumentCatalog catalog;
+    // The user or AuthSub token logged in with, which names the catalog file.
+    private volatile String account;
+    private int splitThreshold;
+    private WikiConverterPool converters = new WikiConverterPool();
+    private final JobManager jobManager = new JobManager(JobManager.DEFAULT_THREADS);
+    // False while entries are printed as text for people.
+    private volatile boolean jsonOutput;
+    // The fields of each JSON line, or null for all of them.
+    private volatile String jsonFields;
 
     private static final String APPLICATION_NAME = "JavaGDataClientSampleAppV3.0";
 
+    private static final String DEFAULT_WIKI_URL = "http://localhost/wiki/index.php";
+    private static final String DEFAULT_WIKI_USER = "your_user_name";
+    private static final String DEFAULT_WIKI_PASSWORD = "your_password";
+    private static final String DEFAULT_SESSION_DIR = ".google_doc_to_wiki";
+    private static final int DEFAULT_ACCOUNT_THREADS = 8;
+    private static final String SYNC_STATE_FILE = "sync.properties";
+    private static final int DEFAULT_SYNC_POLL_SECONDS = 60;
+    private static final int DEFAULT_SYNC_DEBOUNCE_SECONDS = 120;
+    private static final int DEFAULT_MIGRATE_THREADS = 4;
+    private static final String CATALOG_FILE_PREFIX = "catalog-";
+    private static final String DEFAULT_MIGRATE_ORDER = "priority,size";
+    private static final int DEFAULT_COMPARE_DOCUMENTS = 20;
+    private static final int DEFAULT_BULK_THREADS = 8;
+
     /**
      * The message for displaying the usage parameters.
      */
     private static final String[] USAGE_MESSAGE = {
             "Usage: java GoogleDocMigrationDemo.jar --username <user> --password <pass>",
             "Usage: java GoogleDocMigrationDemo.jar --authSub <token>",
+            "Usage: java GoogleDocMigrationDemo.jar --accounts <file> [--threads <n>]"
+                    + " [--rate <docs_per_second>]",
             "    [--host <host:port>]          Where is the feed (default = docs.google.com)",
             "    [--log]                       Enable logging of requests",
+            "    [--wiki <url>]                The MediaWiki to migrate to"
+                    + " (default = " + DEFAULT_WIKI_URL + ")",
+            "    [--wikiUser <user>]           The wiki user to save pages as",
+            "    [--wikiPassword <pass>]       The password of the wiki user",
+            "    [--session <dir>]             Where login sessions are kept between runs"
+                    + " (default = ~/" + DEFAULT_SESSION_DIR + ")",
+            "    [--json]                      Print listings as JSON Lines, following every"
+                    + " page",
+            "    [--fields <f1,f2,...>]        The fields of each JSON line (default = all)",
+            "    [--splitPages <chars>]        Split longer pages into a subpage per top-level"
+                    + " heading",
+            "    [--converter <name>]          " + WikiConverterPool.BLIKI + ", "
+                    + WikiConverterPool.NATIVE + " or a WikiConverter class"
+                    + " (default = " + WikiConverterPool.DEFAULT_CONVERTER + ")",
+            "    [--jfr <file>]                Record a flight recording, with an event per"
+                    + " export, conversion and remote call, into a file written on exit",
+            "    [--jfrSettings <settings>]    default, profile or a .jfc file (default = "
+                    + FlightRecording.DEFAULT_SETTINGS + ")",
+            "    [--ledger <dir>]              Migrate every document as one worker of several,"
+                    + " sharing a ledger directory, instead of starting the shell",
+            "    [--shard <i>/<n>]             This worker's shard of n, from 0 (default = 0/1)",
+            "    [--lease <seconds>]           How long a claim lasts without renewal, after"
+                    + " which other workers take it over (default = "
+                    + WorkLedger.DEFAULT_LEASE_MILLIS / 1000 + ")",
+            "",
+            "    --accounts <file>             Migrate every account of a credentials file,"
+                    + " one 'user password' per line",
+            "    [--threads <n>]               Workers shared by the accounts (default = "
+                    + DEFAULT_ACCOUNT_THREADS + ")",
+            "    [--rate <docs_per_second>]    Most documents per second for each account"
+                    + " (default = no limit)",
             ""};
 
     /**
@@ -87,6 +171,28 @@ public class GoogleDocMigrationDemo {
             "    list [object_type] [...]                  [[lists objects]]",
             "    migrate <resource_id> <folder_id>            [[migrate a document to Wiki]]",
             "    revisions <resource_id>                   [[lists revisions of a document]]",
+            "    output <text|json> [fields]               [[print listings for people, or as"
+                    + " JSON Lines]]",
+            "    sync [poll_seconds] [debounce_seconds]    [[keep the wiki in step with changed"
+                    + " documents]]",
+            "    migrateall [order] [priority_file]        [[migrate all documents, small and"
+                    + " important ones first]]",
+            "    dump <file_path> [part_mb]                [[write all documents to a MediaWiki"
+                    + " XML export]]",
+            "    catalog [refresh|find] [...]              [[find entries in the saved catalog of"
+                    + " the account]]",
+            "    converter [name|compare] [...]            [[choose how HTML is converted to wiki"
+                    + " markup]]",
+            "    bulk <move|trash|delete|remove> [...]     [[file, trash or unfile every match of"
+                    + " a search]]",
+            "",
+            "    jobs                                      [[list background jobs]]",
+            "    status <job_id>                           [[show the state and output of a"
+                    + " job]]",
+            "    cancel <job_id>                           [[stop a job]]",
+            "",
+            "    End a command with '&' to run it in the background. migrate, migrateall, dump"
+                    + " and bulk always do.",
             "",
             "    help [command]                            [[display this message, or info about"
                     + " the specified command]]",
@@ -116,10 +222,97 @@ public class GoogleDocMigrationDemo {
     private final String[] COMMAND_MIGRATE_HELP = {
             "migrate resource_id [category]", "Migrate the resource with resource ID under the category"
     };
+    private final String[] COMMAND_HELP_DUMP = {
+            "dump <file_path> [part_mb]",
+            "    file_path: The MediaWiki XML export file to write, for importDump.php or"
+                    + " Special:Import.",
+            "    part_mb: Split the export into numbered files of about this many megabytes.",
+            "    Prints its progress every " + (ProgressReporter.DEFAULT_TICK_MILLIS / 1000)
+                    + " s and turns copies into redirects, like migrateall."};
+
+    private final String[] COMMAND_HELP_OUTPUT = {
+            "output <text|json> [fields]",
+            "    text: Print listings for people, one page at a time.",
+            "    json: Print every page of a listing as JSON Lines, one entry per line.",
+            "    fields: Comma separated fields of each line. Documents have "
+                    + JsonLinesWriter.DOCUMENT_FIELDS + ",",
+            "        revisions have " + JsonLinesWriter.REVISION_FIELDS + "."};
+
+    private final String[] COMMAND_HELP_SYNC = {
+            "sync [poll_seconds] [debounce_seconds]",
+            "    Polls the changes feed and republishes changed documents until Enter is pressed.",
+            "    The changestamp reached is kept with the login sessions, so the next sync"
+                    + " resumes from it.",
+            "    poll_seconds: How often to poll for changes (default = "
+                    + DEFAULT_SYNC_POLL_SECONDS + ").",
+            "    debounce_seconds: How long a document must go unchanged before it is"
+                    + " published (default = " + DEFAULT_SYNC_DEBOUNCE_SECONDS + ")."};
+
+    private final String[] COMMAND_HELP_MIGRATEALL = {
+            "migrateall [order] [priority_file]",
+            "    Migrates every document with " + DEFAULT_MIGRATE_THREADS + " workers, turning"
+                    + " links between them into wiki links. Documents"
+                    + " over " + (MigrationQueue.DEFAULT_SLOW_BYTES / (1024 * 1024)) + " MB take"
+                    + " a slow lane, so they do not hold up the small ones.",
+            "    order: Comma separated keys: priority, size, updated, viewed, title. A '-'"
+                    + " reverses a key.",
+            "        (defaults to '" + DEFAULT_MIGRATE_ORDER + "')",
+            "    priority_file: Resource ids or titles to migrate first, one per line.",
+            "    Copies of a document already migrated, found by their content, become"
+                    + " redirects to its page.",
+            "    Every " + (ProgressReporter.DEFAULT_TICK_MILLIS / 1000) + " s it prints how"
+                    + " many documents are done, the recent rates and the time left; see"
+                    + " 'status'."};
+
+    private final String[] COMMAND_HELP_CATALOG = {
+            "catalog",
+            "    Counts the entries of the account by type. The catalog is listed once, then"
+                    + " kept with the login sessions.",
+            "catalog refresh",
+            "    Lists the account again and saves the new catalog.",
+            "catalog find [type=<type>] [folder=<folder_id>] [since=<yyyy-mm-dd>]"
+                    + " [until=<yyyy-mm-dd>]",
+            "    Finds the entries of a type, directly in a folder, or updated in a date"
+                    + " range, without asking Google."};
+
+    private final String[] COMMAND_HELP_CONVERTER = {
+            "converter",
+            "    Shows the converter in use and how fast it has converted so far.",
+            "converter <name>",
+            "    name: " + WikiConverterPool.BLIKI + ", " + WikiConverterPool.NATIVE
+                    + ", or the class name of another WikiConverter.",
+            "converter compare [count]",
+            "    Exports the first documents of the account once, then converts them with each"
+                    + " built-in converter",
+            "    and shows their throughput.",
+            "    count: How many documents to export (default = " + DEFAULT_COMPARE_DOCUMENTS
+                    + ")."};
+
+    private final String[] COMMAND_HELP_BULK = {
+            "bulk move <folder_id> <key=value> [...]",
+            "    Files every match of an advanced search in a folder.",
+            "bulk trash <key=value> [...]",
+            "bulk delete <key=value> [...]",
+            "    Moves every match to the trash, or deletes it for good.",
+            "bulk remove <folder_id> [key=value] [...]",
+            "    Takes every match, or the whole contents of the folder, out of the folder.",
+            "    key=value: Search parameters, as for asearch. Objects that changed after they"
+                    + " were listed are left alone.",
+            "    Runs " + DEFAULT_BULK_THREADS + " requests at a time and prints every"
+                    + " failure."};
+
+    private final String[] COMMAND_HELP_JOBS = {
+            "jobs",
+            "    Lists the background jobs, with their state and how long they have run.",
+            "status <job_id>",
+            "    Shows the state of a job and everything it has printed so far.",
+            "cancel <job_id>",
+            "    Stops a job, including any download it is in the middle of. A queued job never"
+                    + " starts.",
+            "    Up to " + JobManager.DEFAULT_THREADS + " jobs run at once; the rest wait their"
+                    + " turn."};
 
     private static final String CHT_ROOT = "CloudHealth";
-    private static final String TMP_FILE = "/tmp/tmp.html";
-    private static final String DEFAULT_CATEGORY = "Default";
 
     private final Map<String, String[]> HELP_MESSAGES;
     {
@@ -132,6 +325,16 @@ public class GoogleDocMigrationDemo {
         HELP_MESSAGES.put("exit", COMMAND_HELP_EXIT);
         HELP_MESSAGES.put("error", COMMAND_HELP_ERROR);
         HELP_MESSAGES.put("migrate", COMMAND_MIGRATE_HELP);
+        HELP_MESSAGES.put("dump", COMMAND_HELP_DUMP);
+        HELP_MESSAGES.put("output", COMMAND_HELP_OUTPUT);
+        HELP_MESSAGES.put("sync", COMMAND_HELP_SYNC);
+        HELP_MESSAGES.put("migrateall", COMMAND_HELP_MIGRATEALL);
+        HELP_MESSAGES.put("catalog", COMMAND_HELP_CATALOG);
+        HELP_MESSAGES.put("converter", COMMAND_HELP_CONVERTER);
+        HELP_MESSAGES.put("bulk", COMMAND_HELP_BULK);
+        HELP_MESSAGES.put("jobs", COMMAND_HELP_JOBS);
+        HELP_MESSAGES.put("status", COMMAND_HELP_JOBS);
+        HELP_MESSAGES.put("cancel", COMMAND_HELP_JOBS);
     }
 
     /**
@@ -142,10 +345,31 @@ public class GoogleDocMigrationDemo {
      */
     public GoogleDocMigrationDemo(PrintStream outputStream, String appName, String host)
             throws DocumentListException {
-        out = outputStream;
+        this(outputStream, appName, host, DEFAULT_WIKI_URL, DEFAULT_WIKI_USER,
+                DEFAULT_WIKI_PASSWORD, null);
+    }
+
+    /**
+     * Constructor. Nothing is logged in until it is first needed.
+     *
+     * @param outputStream Stream to print output to.
+     * @param wikiUrl the url of the MediaWiki to migrate to.
+     * @param wikiUser the wiki user to save pages as.
+     * @param wikiPassword the password of the wiki user.
+     * @param sessionStore where login sessions are kept between runs, or null.
+     * @throws DocumentListException
+     */
+    public GoogleDocMigrationDemo(PrintStream outputStream, String appName, String host,
+                                  String wikiUrl, String wikiUser, String wikiPassword,
+                                  SessionStore sessionStore) throws DocumentListException {
+        // Jobs print to their own output, kept until asked for with "status".
+        out = jobManager.wrap(outputStream);
         documentList = new DocumentList(appName, host);
-        bot = new MediaWikiBot("http://localhost/wiki/index.php");
-        bot.login("your_user_name", "your_password");
+        documentList.setSessionStore(sessionStore);
+        this.wikiUrl = wikiUrl;
+        this.wikiUser = wikiUser;
+        this.wikiPassword = wikiPassword;
+        this.sessionStore = sessionStore;
     }
 
     /**
@@ -156,9 +380,15 @@ public class GoogleDocMigrationDemo {
      * @throws DocumentListException
      * @throws AuthenticationException
      */
-    public void login(String username, String password) throws AuthenticationException,
-            DocumentListException {
-        documentList.login(username, password);
+    public void login(final String username, final String password)
+            throws AuthenticationException, DocumentListException {
+        setAccount(username.toLowerCase());
+        docsLogin = loginExecutor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                documentList.login(username, password);
+                return null;
+            }
+        });
     }
 
     /**
@@ -170,9 +400,151 @@ public class GoogleDocMigrationDemo {
      */
     public void login(String authSubToken)
             throws AuthenticationException, DocumentListException {
+        setAccount(authSubToken);
         documentList.loginWithAuthSubToken(authSubToken);
     }
 
+    /**
+     * Notes the account logged in to, dropping the catalog of any other.
+     */
+    private synchronized void setAccount(String account) {
+        if (!account.equals(this.account)) {
+            catalog = null;
+        }
+        this.account = account;
+    }
+
+    /**
+     * Gets the document list, waiting for the Google login to finish.
+     *
+     * @throws DocumentListException if the login failed.
+     */
+    private DocumentList getDocumentList() throws DocumentListException {
+        if (docsLogin != null) {
+            await(docsLogin);
+        }
+        return documentList;
+    }
+
+    /**
+     * Starts logging in to the wiki in the background, if that has not been
+     * started yet.
+     */
+    private synchronized void startWikiLogin() {
+        if (wikiLogin == null) {
+            wikiLogin = loginExecutor.submit(new Callable<MediaWikiBot>() {
+                public MediaWikiBot call() {
+                    return WikiSession.login(wikiUrl, wikiUser, wikiPassword, sessionStore);
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the migrator, logging in to the wiki on first use.
+     *
+     * @throws DocumentListException if a login failed.
+     */
+    private synchronized WikiMigrator getMigrator() throws DocumentListException {
+        if (migrator == null) {
+            migrator = new WikiMigrator(getDocumentList(), getBot(), CHT_ROOT);
+            migrator.setSplitThreshold(splitThreshold);
+            migrator.setConverters(converters);
+        }
+        return migrator;
+    }
+
+    /**
+     * Gets a migrator that only exports and converts documents, for commands
+     * that do not need the wiki.
+     *
+     * @throws DocumentListException if the Google login failed.
+     */
+    private synchronized WikiMigrator getExporter() throws DocumentListException {
+        if (exporter == null) {
+            exporter = new WikiMigrator(getDocumentList(), null, CHT_ROOT);
+            exporter.setConverters(converters);
+        }
+        return exporter;
+    }
+
+    /**
+     * Gets the wiki bot, logging in to the wiki on first use.
+     *
+     * @throws DocumentListException if the wiki login failed.
+     */
+    private MediaWikiBot getBot() throws DocumentListException {
+        Future<MediaWikiBot> login;
+        synchronized (this) {
+            startWikiLogin();
+            login = wikiLogin;
+        }
+        return await(login);
+    }
+
+    /**
+     * Waits for a background login and reports its failure.
+     */
+    private static <T> T await(Future<T> login) throws DocumentListException {
+        try {
+            return login.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DocumentListException("interrupted while logging in", e);
+        } catch (ExecutionException e) {
+            throw new DocumentListException("login failed: " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+    }
+
+    /**
+     * Prints listings as JSON Lines instead of text. Every page of a listing is
+     * then followed, and each entry is written as it is read.
+     *
+     * @param fields a comma separated list of the fields to write, or null for
+     *        all of them.
+     */
+    public void setJsonOutput(String fields) {
+        jsonFields = fields;
+        jsonOutput = true;
+    }
+
+    /**
+     * Splits pages longer than a threshold into a subpage per top-level
+     * heading when migrating.
+     *
+     * @param maxPageChars the length above which a page is split, or 0 to
+     *        never split.
+     */
+    public synchronized void setSplitThreshold(int maxPageChars) {
+        splitThreshold = maxPageChars;
+        if (migrator != null) {
+            migrator.setSplitThreshold(maxPageChars);
+        }
+    }
+
+    /**
+     * Sets the converters documents are converted to wiki markup with.
+     *
+     * @param converters the converters, one per migrating thread.
+     */
+    public synchronized void setConverters(WikiConverterPool converters) {
+        this.converters = converters;
+        if (migrator != null) {
+            migrator.setConverters(converters);
+        }
+        if (exporter != null) {
+            exporter.setConverters(converters);
+        }
+    }
+
+    /**
+     * Prints listings as text for people, which is the default.
+     */
+    public void setTextOutput() {
+        jsonOutput = false;
+    }
+
     /**
      * Prints out the specified document entry.
      *
@@ -218,13 +590,6 @@ public class GoogleDocMigrationDemo {
 
 
 
-    static String readFile(String path, Charset encoding)
-            throws IOException {
-        byte[] encoded = Files.readAllBytes(Paths.get(path));
-        return new String(encoded, encoding);
-    }
-
-
     /**
      * Execute the "list" command.
      *
@@ -249,27 +614,29 @@ public class GoogleDocMigrationDemo {
         switch (args.length) {
             case 1:
                 msg = "List of docs: ";
-                feed = documentList.getDocsListFeed("all");
+                feed = getDocumentList().getDocsListFeed("all");
                 break;
             case 2:
                 msg = "List of all " + args[1] + ": ";
-                feed = documentList.getDocsListFeed(args[1]);
+                feed = getDocumentList().getDocsListFeed(args[1]);
                 break;
             case 3:
                 if (args[1].equals("folder")) {
                     msg = "Contents of folder_id '" + args[2] + "': ";
-                    feed = documentList.getFolderDocsListFeed(args[2]);
+                    feed = getDocumentList().getFolderDocsListFeed(args[2]);
                 }
                 break;
         }
 
-        if (feed != null) {
+        if (feed == null) {
+            printMessage(COMMAND_HELP_LIST);
+        } else if (jsonOutput) {
+            writeDocumentEntries(feed);
+        } else {
             out.println(msg);
             for (DocumentListEntry entry : feed.getEntries()) {
                 printDocumentEntry(entry);
             }
-        } else {
-            printMessage(COMMAND_HELP_LIST);
         }
     }
 
@@ -294,7 +661,11 @@ public class GoogleDocMigrationDemo {
             HashMap<String, String> searchParameters = new HashMap<String, String>();
             searchParameters.put("q", args[1]);
 
-            DocumentListFeed feed = documentList.search(searchParameters);
+            DocumentListFeed feed = getDocumentList().search(searchParameters);
+            if (jsonOutput) {
+                writeDocumentEntries(feed);
+                return;
+            }
             out.println("Results for [" + args[1] + "]");
             for (DocumentListEntry entry : feed.getEntries()) {
                 printDocumentEntry(entry);
@@ -330,7 +701,11 @@ public class GoogleDocMigrationDemo {
                     .substring(args[i].indexOf("=") + 1));
         }
 
-        DocumentListFeed feed = documentList.search(searchParameters);
+        DocumentListFeed feed = getDocumentList().search(searchParameters);
+        if (jsonOutput) {
+            writeDocumentEntries(feed);
+            return;
+        }
         out.println("Results for advanced search:");
         for (DocumentListEntry entry : feed.getEntries()) {
             printDocumentEntry(entry);
@@ -354,8 +729,10 @@ public class GoogleDocMigrationDemo {
     private void executeRevisions(String[] args) throws IOException,
             ServiceException, DocumentListException {
         if (args.length == 2) {
-            RevisionFeed feed = documentList.getRevisionsFeed(args[1]);
-            if (feed != null) {
+            RevisionFeed feed = getDocumentList().getRevisionsFeed(args[1]);
+            if (feed != null && jsonOutput) {
+                writeRevisionEntries(feed);
+            } else if (feed != null) {
                 out.println("List of revisions...");
                 for (RevisionEntry entry : feed.getEntries()) {
                     printRevisionEntry(entry);
@@ -368,6 +745,364 @@ public class GoogleDocMigrationDemo {
         }
     }
 
+    /**
+     * Writes the entries of a feed and of all its following pages as JSON
+     * Lines.
+     */
+    private void writeDocumentEntries(DocumentListFeed feed) throws IOException,
+            ServiceException, DocumentListException {
+        JsonLinesWriter json = newJsonWriter();
+        while (feed != null) {
+            for (DocumentListEntry entry : feed.getEntries()) {
+                json.writeDocumentEntry(entry);
+            }
+            feed = getDocumentList().getNextFeed(feed);
+        }
+        json.flush();
+    }
+
+    /**
+     * Writes the revisions of a feed and of all its following pages as JSON
+     * Lines.
+     */
+    private void writeRevisionEntries(RevisionFeed feed) throws IOException,
+            ServiceException, DocumentListException {
+        JsonLinesWriter json = newJsonWriter();
+        while (feed != null) {
+            for (RevisionEntry entry : feed.getEntries()) {
+                json.writeRevisionEntry(entry);
+            }
+            feed = getDocumentList().getNextFeed(feed);
+        }
+        json.flush();
+    }
+
+    /**
+     * Opens a JSON Lines writer for one command. Writers are not shared, as
+     * they buffer lines and background jobs each print to their own output.
+     */
+    private JsonLinesWriter newJsonWriter() {
+        return new JsonLinesWriter(new OutputStreamWriter(JobManager.getOutput(out),
+                StandardCharsets.UTF_8), jsonFields);
+    }
+
+    /**
+     * Execute the "output" command.
+     *
+     * @param args arguments for the "output" command.
+     *     args[0] = "output"
+     *     args[1] = format ("text" or "json")
+     *     args[2] = fields (optional, for "json")
+     */
+    private void executeOutput(String[] args) {
+        if (args.length == 2 && args[1].equals("text")) {
+            setTextOutput();
+        } else if ((args.length == 2 || args.length == 3) && args[1].equals("json")) {
+            setJsonOutput(args.length == 3 ? args[2] : null);
+        } else {
+            printMessage(COMMAND_HELP_OUTPUT);
+        }
+    }
+
+    /**
+     * Execute the "sync" command, which runs until Enter is pressed.
+     *
+     * @param args arguments for the "sync" command.
+     *     args[0] = "sync"
+     *     args[1] = poll interval in seconds (optional)
+     *     args[2] = debounce window in seconds (optional)
+     * @param reader to wait for Enter on.
+     */
+    private void executeSync(String[] args, BufferedReader reader)
+            throws IOException, InterruptedException, DocumentListException {
+        if (args.length > 3) {
+            printMessage(COMMAND_HELP_SYNC);
+            return;
+        }
+        long poll = DEFAULT_SYNC_POLL_SECONDS;
+        long debounce = DEFAULT_SYNC_DEBOUNCE_SECONDS;
+        try {
+            if (args.length > 1) {
+                poll = Long.parseLong(args[1]);
+            }
+            if (args.length > 2) {
+                debounce = Long.parseLong(args[2]);
+            }
+        } catch (NumberFormatException e) {
+            printMessage(COMMAND_HELP_SYNC);
+            return;
+        }
+        File stateFile = sessionStore == null ? new File(SYNC_STATE_FILE)
+                : new File(sessionStore.getDirectory(), SYNC_STATE_FILE);
+
+        startWikiLogin();
+        SyncDaemon daemon = new SyncDaemon(getDocumentList(), getMigrator(), stateFile,
+                poll * 1000, debounce * 1000);
+        daemon.setLog(out);
+        Thread thread = new Thread(daemon, "sync");
+        thread.start();
+        out.println("Syncing every " + poll + " s. Press Enter to stop.");
+
+        reader.readLine();
+        daemon.stop();
+        thread.join();
+        out.println("Published " + daemon.getPublishedCount() + " documents ("
+                + daemon.getFailedCount() + " failures, " + daemon.getPendingCount()
+                + " still waiting).");
+    }
+
+    /**
+     * Execute the "catalog" command.
+     *
+     * @param args arguments for the "catalog" command.
+     *     args[0] = "catalog"
+     *     args[1] = "refresh" or "find" (optional)
+     *     args[2..] = filters of "find", as key=value (optional)
+     */
+    private void executeCatalog(String[] args) throws IOException, ServiceException,
+            DocumentListException {
+        if (args.length == 1) {
+            DocumentCatalog catalog = getCatalog(false);
+            Map<String, Integer> counts = new TreeMap<String, Integer>();
+            for (int row = 0; row < catalog.size(); row++) {
+                String type = catalog.getType(row);
+                counts.put(type, counts.containsKey(type) ? counts.get(type) + 1 : 1);
+            }
+            for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                out.println(" -- " + count.getKey() + ": " + count.getValue());
+            }
+        } else if (args.length == 2 && args[1].equals("refresh")) {
+            out.println("Cataloged " + getCatalog(true).size() + " entries.");
+        } else if (args[1].equals("find")) {
+            String type = null;
+            String folder = null;
+            long updatedMin = 0;
+            long updatedMax = Long.MAX_VALUE;
+            try {
+                for (int i = 2; i < args.length; i++) {
+                    String key = args[i].substring(0, Math.max(0, args[i].indexOf("=")));
+                    String value = args[i].substring(args[i].indexOf("=") + 1);
+                    if (key.equals("type")) {
+                        type = value;
+                    } else if (key.equals("folder")) {
+                        folder = value.startsWith("folder:") ? value : "folder:" + value;
+                    } else if (key.equals("since")) {
+                        updatedMin = DateTime.parseDate(value).getValue();
+                    } else if (key.equals("until")) {
+                        // Until the end of that day.
+                        updatedMax = DateTime.parseDate(value).getValue() + 24 * 3600 * 1000 - 1;
+                    } else {
+                        printMessage(COMMAND_HELP_CATALOG);
+                        return;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                printMessage(COMMAND_HELP_CATALOG);
+                return;
+            }
+            DocumentCatalog catalog = getCatalog(false);
+            for (int row : catalog.find(type, folder, updatedMin, updatedMax)) {
+                StringBuilder output = new StringBuilder();
+                output.append(" -- " + catalog.getTitle(row) + " ");
+                int parent = catalog.getParent(row);
+                if (parent != DocumentCatalog.NO_PARENT) {
+                    output.append("[" + catalog.getTitle(parent) + "] ");
+                }
+                output.append(catalog.getResourceId(row));
+                out.println(output);
+            }
+        } else {
+            printMessage(COMMAND_HELP_CATALOG);
+        }
+    }
+
+    /**
+     * Gets the catalog of the account. It is read from the session directory
+     * if saved there before, and otherwise listed and saved. Each account has
+     * its own catalog file.
+     *
+     * @param refresh whether to list the account again even if a catalog is
+     *        loaded or saved.
+     */
+    private DocumentCatalog getCatalog(boolean refresh) throws IOException, ServiceException,
+            DocumentListException {
+        String name = CATALOG_FILE_PREFIX
+                + Integer.toHexString(String.valueOf(account).hashCode()) + ".bin";
+        File file = sessionStore == null ? new File(name)
+                : new File(sessionStore.getDirectory(), name);
+        if (catalog == null && !refresh && file.exists()) {
+            try {
+                catalog = DocumentCatalog.load(file);
+            } catch (IOException e) {
+                out.println("Listing the account again: " + e.getMessage());
+            }
+        }
+        if (catalog == null || refresh) {
+            catalog = DocumentCatalog.fetch(getDocumentList());
+            catalog.save(file);
+        }
+        return catalog;
+    }
+
+    /**
+     * Execute the "bulk" command.
+     *
+     * @param args arguments for the "bulk" command.
+     *     args[0] = "bulk"
+     *     args[1] = "move", "trash", "delete" or "remove"
+     *     args[2] = folder_id (for "move" and "remove")
+     *     args[2..] or args[3..] = search parameters, as key=value
+     */
+    private void executeBulk(String[] args) throws IOException, ServiceException,
+            DocumentListException {
+        if (args.length < 2) {
+            printMessage(COMMAND_HELP_BULK);
+            return;
+        }
+        String type = args[1];
+        boolean inFolder = type.equals("move") || type.equals("remove");
+        int first = inFolder ? 3 : 2;
+        // Only remove may go without a search, which then means the whole
+        // folder, so that a typo cannot trash every document.
+        if (!inFolder && !type.equals("trash") && !type.equals("delete")
+                || args.length < first || args.length == first && !type.equals("remove")) {
+            printMessage(COMMAND_HELP_BULK);
+            return;
+        }
+        String folderId = null;
+        if (inFolder) {
+            folderId = args[2].startsWith("folder:") ? args[2] : "folder:" + args[2];
+        }
+
+        Map<String, String> searchParameters = new HashMap<String, String>();
+        for (int i = first; i < args.length; i++) {
+            if (args[i].indexOf("=") < 1) {
+                printMessage(COMMAND_HELP_BULK);
+                return;
+            }
+            searchParameters.put(args[i].substring(0, args[i].indexOf("=")),
+                    args[i].substring(args[i].indexOf("=") + 1));
+        }
+        DocumentListFeed feed = searchParameters.isEmpty()
+                ? getDocumentList().getFolderDocsListFeed(folderId, DocumentList.FIELDS_SUMMARY)
+                : getDocumentList().search(searchParameters, null, DocumentList.FIELDS_SUMMARY);
+        List<EntryOperation> operations = new ArrayList<EntryOperation>();
+        while (feed != null) {
+            for (DocumentListEntry entry : feed.getEntries()) {
+                if (type.equals("remove") && !isInFolder(entry, folderId)) {
+                    continue;
+                }
+                if (type.equals("move")) {
+                    operations.add(EntryOperation.move(entry.getResourceId(), folderId));
+                } else if (type.equals("trash")) {
+                    operations.add(EntryOperation.trash(entry));
+                } else if (type.equals("delete")) {
+                    operations.add(EntryOperation.delete(entry));
+                } else {
+                    operations.add(EntryOperation.removeFromFolder(entry, folderId));
+                }
+            }
+            feed = getDocumentList().getNextFeed(feed);
+        }
+
+        int done = 0;
+        for (BulkResult<EntryOperation> result : getDocumentList().applyEntryOperations(
+                operations, DEFAULT_BULK_THREADS)) {
+            if (result.isSuccess()) {
+                done++;
+            } else {
+                out.println(" -- " + result);
+            }
+        }
+        out.println("Done with " + done + " of " + operations.size() + " objects.");
+    }
+
+    /**
+     * Tells whether a folder is among the parents of an entry.
+     */
+    private boolean isInFolder(DocumentListEntry entry, String folderId)
+            throws DocumentListException {
+        String key = getDocumentList().getResourceIdSuffix(folderId);
+        for (Link link : entry.getParentLinks()) {
+            if (getDocumentList().getResourceIdSuffix(link.getHref()).equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Execute the "converter" command.
+     *
+     * @param args arguments for the "converter" command.
+     *     args[0] = "converter"
+     *     args[1] = a converter name, or "compare" (optional)
+     *     args[2] = number of documents to compare on (optional, for "compare")
+     */
+    private void executeConverter(String[] args) throws IOException, ServiceException,
+            DocumentListException {
+        if (args.length == 1) {
+            out.println(converters.getThroughput());
+        } else if (args[1].equals("compare") && args.length <= 3) {
+            int count = DEFAULT_COMPARE_DOCUMENTS;
+            try {
+                if (args.length == 3) {
+                    count = Integer.parseInt(args[2]);
+                }
+            } catch (NumberFormatException e) {
+                printMessage(COMMAND_HELP_CONVERTER);
+                return;
+            }
+            compareConverters(count);
+        } else if (args.length == 2) {
+            setConverters(WikiConverterPool.forName(args[1]));
+            out.println("Converting with " + args[1] + ".");
+        } else {
+            printMessage(COMMAND_HELP_CONVERTER);
+        }
+    }
+
+    /**
+     * Converts the same documents with every built-in converter and prints
+     * their throughput. Each converter first runs over every document
+     * untimed, so that both are timed with their code already compiled.
+     *
+     * @param count the number of documents to export and convert.
+     */
+    private void compareConverters(int count) throws IOException, ServiceException,
+            DocumentListException {
+        List<String> documents = new ArrayList<String>();
+        DocumentListFeed feed = getDocumentList().getDocsListFeed("documents",
+                DocumentList.FIELDS_SUMMARY);
+        while (feed != null && documents.size() < count) {
+            for (DocumentListEntry entry : feed.getEntries()) {
+                if (documents.size() == count) {
+                    break;
+                }
+                ExportBuffer export = getDocumentList().downloadDocument(entry.getResourceId(),
+                        "html");
+                try {
+                    documents.add(export.decode(StandardCharsets.UTF_8));
+                } finally {
+                    export.close();
+                }
+            }
+            feed = documents.size() < count ? getDocumentList().getNextFeed(feed) : null;
+        }
+
+        for (String name : new String[] {WikiConverterPool.BLIKI, WikiConverterPool.NATIVE}) {
+            WikiConverterPool warmup = WikiConverterPool.forName(name);
+            for (String html : documents) {
+                warmup.toWiki(html);
+            }
+            WikiConverterPool pool = WikiConverterPool.forName(name);
+            for (String html : documents) {
+                pool.toWiki(html);
+            }
+            out.println(" -- " + pool.getThroughput());
+        }
+    }
+
     /**
      * Execute the "help" command.
      *
@@ -424,7 +1159,8 @@ public class GoogleDocMigrationDemo {
     }
 
     /**
-     * Reads and executes one command.
+     * Reads and executes one command. Commands that end in "&", and the long
+     * migration commands, start as background jobs instead.
      *
      * @param reader to read input from the keyboard
      * @return false if the user quits, true on exception
@@ -433,33 +1169,42 @@ public class GoogleDocMigrationDemo {
      */
     private boolean executeCommand(BufferedReader reader)
             throws IOException, ServiceException, InterruptedException {
+        for (JobManager.Job job : jobManager.takeFinished()) {
+            out.println(job);
+        }
         System.err.print("Command: ");
 
         try {
-            String command = reader.readLine();
+            final String command = reader.readLine();
             if (command == null) {
                 return false;
             }
 
-            String[] args = parseCommand(command);
+            String line = command.trim();
+            boolean background = line.endsWith("&");
+            if (background) {
+                line = line.substring(0, line.length() - 1).trim();
+            }
+            final String[] args = parseCommand(line);
             String name = args[0];
+            if (name.equals("migrate") || name.equals("migrateall") || name.equals("dump")
+                    || name.equals("bulk")) {
+                background = true;
+            }
 
-            if (name.equals("search")) {
-                executeSearch(args);
-            } else if (name.equals("asearch")) {
-                executeAdvancedSearch(args);
-            } else if (name.equals("revisions")) {
-                executeRevisions(args);
-            } else if (name.equals("help")) {
-                executeHelp(args);
-            } else if (name.equals("list")) {
-                executeList(args);
-            } else if (name.equals("migrate")) {
-                executeMigration(args);
-            } else if (name.startsWith("q") || name.startsWith("exit")) {
-                return false;
+            if (!background || name.equals("help") || name.equals("jobs")
+                    || name.equals("status") || name.equals("cancel") || name.equals("output")) {
+                return runCommand(args, reader);
+            } else if (name.equals("sync") || name.startsWith("q") || name.startsWith("exit")) {
+                out.println("'" + name + "' cannot run in the background.");
             } else {
-                out.println("Unknown command. Type 'help' for a list of commands.");
+                JobManager.Job job = jobManager.submit(line, new Callable<Void>() {
+                    public Void call() throws Exception {
+                        runCommand(args, null);
+                        return null;
+                    }
+                });
+                out.println("[" + job.getId() + "] " + line);
             }
         } catch (DocumentListException e) {
             // Show *exactly* what went wrong.
@@ -468,39 +1213,369 @@ public class GoogleDocMigrationDemo {
         return true;
     }
 
+    /**
+     * Executes one command.
+     *
+     * @param args the command and its arguments.
+     * @param reader to read input from the keyboard, or null in a background
+     *        job.
+     * @return false if the user quits.
+     */
+    private boolean runCommand(String[] args, BufferedReader reader)
+            throws IOException, ServiceException, InterruptedException, DocumentListException {
+        String name = args[0];
+
+        if (name.equals("search")) {
+            executeSearch(args);
+        } else if (name.equals("asearch")) {
+            executeAdvancedSearch(args);
+        } else if (name.equals("revisions")) {
+            executeRevisions(args);
+        } else if (name.equals("help")) {
+            executeHelp(args);
+        } else if (name.equals("list")) {
+            executeList(args);
+        } else if (name.equals("migrate")) {
+            executeMigration(args);
+        } else if (name.equals("migrateall")) {
+            executeMigrateAll(args);
+        } else if (name.equals("dump")) {
+            executeDump(args);
+        } else if (name.equals("bulk")) {
+            executeBulk(args);
+        } else if (name.equals("converter")) {
+            executeConverter(args);
+        } else if (name.equals("catalog")) {
+            executeCatalog(args);
+        } else if (name.equals("output")) {
+            executeOutput(args);
+        } else if (name.equals("sync")) {
+            executeSync(args, reader);
+        } else if (name.equals("jobs")) {
+            for (JobManager.Job job : jobManager.getJobs()) {
+                out.println(job);
+            }
+        } else if (name.equals("status")) {
+            executeStatus(args);
+        } else if (name.equals("cancel")) {
+            executeCancel(args);
+        } else if (name.startsWith("q") || name.startsWith("exit")) {
+            return false;
+        } else {
+            out.println("Unknown command. Type 'help' for a list of commands.");
+        }
+        return true;
+    }
+
+    /**
+     * Execute the "status" command.
+     *
+     * @param args arguments for the "status" command.
+     *     args[0] = "status"
+     *     args[1] = job id
+     */
+    private void executeStatus(String[] args) {
+        JobManager.Job job = getJob(args);
+        if (job == null) {
+            return;
+        }
+        out.println(job);
+        if (job.getFailure() != null) {
+            job.getFailure().printStackTrace(out);
+        }
+        out.print(job.getOutput());
+    }
+
+    /**
+     * Execute the "cancel" command.
+     *
+     * @param args arguments for the "cancel" command.
+     *     args[0] = "cancel"
+     *     args[1] = job id
+     */
+    private void executeCancel(String[] args) {
+        JobManager.Job job = getJob(args);
+        if (job == null) {
+            return;
+        }
+        if (job.cancel()) {
+            out.println("Cancelled [" + job.getId() + "].");
+        } else {
+            out.println(job);
+        }
+    }
+
+    /**
+     * Gets the job named by a "status" or "cancel" command, or prints why
+     * there is none.
+     */
+    private JobManager.Job getJob(String[] args) {
+        JobManager.Job job = null;
+        if (args.length == 2) {
+            try {
+                job = jobManager.getJob(Integer.parseInt(args[1]));
+            } catch (NumberFormatException e) {
+                // Reported below.
+            }
+        }
+        if (job == null) {
+            printMessage(COMMAND_HELP_JOBS);
+        }
+        return job;
+    }
+
     private void executeMigration(String[] args) {
         try {
             if (args.length == 3 || args.length == 2) {
-                documentList.downloadDocument(args[1], TMP_FILE, "html");
-                HTML2WikiConverter conv = new HTML2WikiConverter();
-                conv.setInputHTML(readFile(TMP_FILE, StandardCharsets.UTF_8));
-                String content = conv.toWiki(new ToWikipedia());
-                DocumentListEntry entry = documentList.getDocsListEntry(args[1]);
+                // Log in to the wiki while the document is exported.
+                startWikiLogin();
+                String content = getExporter().exportToWiki(args[1]);
+                DocumentListEntry entry = getDocumentList().getDocsListEntry(args[1]);
                 String title = entry.getTitle().getPlainText();
-                String category = DEFAULT_CATEGORY;
-                if (entry.getParentLinks() != null && entry.getParentLinks().size() > 0) {
-                    category = entry.getParentLinks().get(0).getTitle();
-                }
+                String category = WikiMigrator.getCategory(entry);
                 if (args.length == 3) {
                     category = args[2];
                 }
-                Article root = bot.getArticle(CHT_ROOT);
-                if (!root.getText().contains("[[" + category + "]]")) {
-                    root.addText("\n*[[" + category + "]]");
-                    root.save();
+                if (getMigrator().publish(title, category, content)) {
+                    out.println("The document \"" + title + "\" is successfully migrated under \"" + category + "\"");
+                } else {
+                    out.println("The document \"" + title + "\" is already up to date under \""
+                            + category + "\"");
                 }
-                Article a = bot.getArticle(category);
-                a.addText("\n*[[" + title + "]]");
-                a.save();
-                a = bot.getArticle(title);
-                a.addText(content);
-                a.save();
-                System.out.println("The document \"" + title + "\" is successfully migrated under \"" + category + "\"");
             } else {
                 printMessage(COMMAND_MIGRATE_HELP);
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            e.printStackTrace(out);
+        }
+    }
+
+    /**
+     * Execute the "migrateall" command.
+     *
+     * @param args arguments for the "migrateall" command.
+     *     args[0] = "migrateall"
+     *     args[1] = order keys (optional)
+     *     args[2] = file of resource ids or titles to migrate first (optional)
+     */
+    private void executeMigrateAll(String[] args) throws IOException, InterruptedException,
+            DocumentListException, ServiceException {
+        if (args.length > 3) {
+            printMessage(COMMAND_HELP_MIGRATEALL);
+            return;
+        }
+        List<String> priority = new ArrayList<String>();
+        if (args.length == 3) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(args[2]), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        priority.add(line.trim());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        Comparator<DocumentListEntry> order = MigrationQueue.getOrder(
+                args.length > 1 ? args[1] : DEFAULT_MIGRATE_ORDER, priority);
+
+        startWikiLogin();
+        List<DocumentListEntry> entries = new ArrayList<DocumentListEntry>();
+        DocumentListFeed feed = getDocumentList().getDocsListFeed("documents",
+                DocumentList.FIELDS_SUMMARY);
+        while (feed != null) {
+            entries.addAll(feed.getEntries());
+            feed = getDocumentList().getNextFeed(feed);
+        }
+
+        // Index every document before migrating any, so that links between
+        // them point at their wiki pages.
+        WikiMigrator migrator = new WikiMigrator(getDocumentList(), getMigrator());
+        migrator.setLinkIndex(WikiLinkIndex.build(getDocumentList(), entries));
+
+        MigrationQueue queue = new MigrationQueue(DEFAULT_MIGRATE_THREADS, 1,
+                MigrationQueue.DEFAULT_SLOW_BYTES);
+        ProgressReporter progress = new ProgressReporter(entries.size());
+        migrator.setProgress(progress);
+        queue.setProgress(progress);
+        ContentDeduplicator deduplicator = new ContentDeduplicator();
+        migrator.setDeduplicator(deduplicator);
+        List<BulkResult<DocumentListEntry>> results;
+        progress.start(JobManager.getOutput(out), ProgressReporter.DEFAULT_TICK_MILLIS);
+        try {
+            results = queue.migrate(entries, order, migrator);
+        } finally {
+            progress.stop();
+        }
+        int migrated = 0;
+        for (BulkResult<DocumentListEntry> result : results) {
+            if (result.isSuccess()) {
+                migrated++;
+            } else {
+                out.println("Failed \"" + result.getItem().getTitle().getPlainText() + "\": "
+                        + result.getReason());
+            }
+        }
+        out.println("Migrated " + migrated + " of " + entries.size() + " documents ("
+                + deduplicator.getDuplicateCount() + " copies of others).");
+        out.println("Converted with " + migrator.getConverters().getThroughput());
+    }
+
+    /**
+     * Migrates every document as one worker of a sharded run, the way
+     * "migrateall" does in one process.
+     *
+     * @param ledger the ledger every worker of the run shares.
+     * @param shard the shard of this worker, from 0.
+     * @param shardCount the number of workers of the run.
+     */
+    private void runSharded(WorkLedger ledger, int shard, int shardCount) throws IOException,
+            InterruptedException, DocumentListException, ServiceException {
+        startWikiLogin();
+        List<DocumentListEntry> entries = new ArrayList<DocumentListEntry>();
+        DocumentListFeed feed = getDocumentList().getDocsListFeed("documents",
+                DocumentList.FIELDS_SUMMARY);
+        while (feed != null) {
+            entries.addAll(feed.getEntries());
+            feed = getDocumentList().getNextFeed(feed);
+        }
+
+        WikiMigrator migrator = new WikiMigrator(getDocumentList(), getMigrator());
+        migrator.setLinkIndex(WikiLinkIndex.build(getDocumentList(), entries));
+        ProgressReporter progress = new ProgressReporter(0);
+        migrator.setProgress(progress);
+        ShardedMigrator sharded = new ShardedMigrator(migrator, ledger,
+                new ShardRing(shardCount), shard, DEFAULT_MIGRATE_THREADS);
+        sharded.setLog(out);
+        sharded.setProgress(progress);
+        List<BulkResult<DocumentListEntry>> results;
+        progress.start(out, ProgressReporter.DEFAULT_TICK_MILLIS);
+        try {
+            results = sharded.migrateAll(entries);
+        } finally {
+            progress.stop();
+        }
+        int migrated = 0;
+        for (BulkResult<DocumentListEntry> result : results) {
+            if (result.isSuccess()) {
+                migrated++;
+            }
+        }
+        out.println("Shard " + shard + " of " + shardCount + " migrated " + migrated + " of "
+                + results.size() + " documents it claimed; all " + entries.size()
+                + " documents are done.");
+    }
+
+    /**
+     * Execute the "dump" command.
+     *
+     * @param args arguments for the "dump" command.
+     *     args[0] = "dump"
+     *     args[1] = file path of the MediaWiki XML export to write
+     *     args[2] = maximum size of each part in megabytes (optional)
+     */
+    private void executeDump(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            printMessage(COMMAND_HELP_DUMP);
+            return;
+        }
+
+        long maxPartBytes = 0;
+        if (args.length == 3) {
+            try {
+                maxPartBytes = Long.parseLong(args[2]) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                printMessage(COMMAND_HELP_DUMP);
+                return;
+            }
+        }
+
+        WikiDumpWriter dump = null;
+        try {
+            dump = new WikiDumpWriter(args[1], maxPartBytes, CHT_ROOT);
+            List<DocumentListEntry> entries = new ArrayList<DocumentListEntry>();
+            DocumentListFeed feed = getDocumentList().getDocsListFeed("documents",
+                    DocumentList.FIELDS_SUMMARY);
+            while (feed != null) {
+                entries.addAll(feed.getEntries());
+                feed = getDocumentList().getNextFeed(feed);
+            }
+            WikiMigrator exporter = new WikiMigrator(getDocumentList(), getExporter());
+            exporter.setLinkIndex(WikiLinkIndex.build(getDocumentList(), entries));
+            ProgressReporter progress = new ProgressReporter(entries.size());
+            exporter.setProgress(progress);
+            ContentDeduplicator deduplicator = new ContentDeduplicator();
+
+            progress.start(JobManager.getOutput(out), ProgressReporter.DEFAULT_TICK_MILLIS);
+            try {
+                for (DocumentListEntry entry : entries) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException("dump cancelled");
+                    }
+                    String title = entry.getTitle().getPlainText();
+                    String category = WikiMigrator.getCategory(entry);
+                    // A document that cannot be exported is skipped; an error
+                    // writing the dump ends it.
+                    String html;
+                    try {
+                        html = exporter.exportHtml(entry.getResourceId());
+                    } catch (ServiceException e) {
+                        progress.documentFailed();
+                        out.println("Skipping \"" + title + "\": " + e.getMessage());
+                        continue;
+                    } catch (IOException e) {
+                        progress.documentFailed();
+                        out.println("Skipping \"" + title + "\": " + e.getMessage());
+                        continue;
+                    }
+                    String hash = ContentDeduplicator.hash(html);
+                    String original = deduplicator.claim(hash, title);
+                    if (original == null) {
+                        boolean published = false;
+                        try {
+                            dump.writePage(title, category,
+                                    exporter.toWiki(entry.getResourceId(), html));
+                            published = true;
+                        } finally {
+                            if (published) {
+                                deduplicator.published(hash);
+                            } else {
+                                deduplicator.failed(hash);
+                            }
+                        }
+                        out.println(" -- " + title);
+                    } else if (original.equals(title)) {
+                        dump.listPage(title, category);
+                        out.println(" -- " + title + " (copy)");
+                    } else {
+                        dump.writePage(title, category,
+                                ContentDeduplicator.getRedirect(original));
+                        out.println(" -- " + title + " (copy of " + original + ")");
+                    }
+                    progress.documentDone();
+                }
+            } finally {
+                progress.stop();
+            }
+            dump.close();
+            out.println("Wrote " + dump.getPageCount() + " pages to " + dump.getPartPaths()
+                    + " (" + deduplicator.getDuplicateCount() + " copies of others).");
+            out.println("Converted with " + exporter.getConverters().getThroughput());
+        } catch (Exception e) {
+            e.printStackTrace(out);
+        } finally {
+            if (dump != null && dump.isOpen()) {
+                try {
+                    dump.abort();
+                    out.println("The dump is partial: " + dump.getPageCount() + " pages in "
+                            + dump.getPartPaths() + ", without the category and index pages.");
+                } catch (IOException e) {
+                    e.printStackTrace(out);
+                }
+            }
         }
     }
 
@@ -562,13 +1637,29 @@ public class GoogleDocMigrationDemo {
         String user = parser.getValue("username", "user", "u");
         String password = parser.getValue("password", "pass", "p");
         String host = parser.getValue("host", "s");
+        String wikiUrl = parser.getValue("wiki", "w");
+        String wikiUser = parser.getValue("wikiUser");
+        String wikiPassword = parser.getValue("wikiPassword");
+        String sessionDir = parser.getValue("session");
+        String fields = parser.getValue("fields");
+        String splitPages = parser.getValue("splitPages");
+        String accountsFile = parser.getValue("accounts");
+        String threads = parser.getValue("threads");
+        String rate = parser.getValue("rate");
+        String converter = parser.getValue("converter");
+        String jfr = parser.getValue("jfr");
+        String jfrSettings = parser.getValue("jfrSettings");
+        String ledger = parser.getValue("ledger");
+        String shard = parser.getValue("shard");
+        String lease = parser.getValue("lease");
         boolean help = parser.containsKey("help", "h");
 
         if (host == null) {
             host = DocumentList.DEFAULT_HOST;
         }
 
-        if (help || (user == null || password == null) && authSub == null) {
+        if (help || (user == null || password == null) && authSub == null
+                && accountsFile == null) {
             printMessage(USAGE_MESSAGE);
             System.exit(1);
         }
@@ -576,9 +1667,54 @@ public class GoogleDocMigrationDemo {
         if (parser.containsKey("log", "l")) {
             turnOnLogging();
         }
+        if (jfr != null) {
+            FlightRecording.start(jfr, jfrSettings);
+        }
+
+        if (wikiUrl == null) {
+            wikiUrl = DEFAULT_WIKI_URL;
+        }
+        if (wikiUser == null) {
+            wikiUser = DEFAULT_WIKI_USER;
+        }
+        if (wikiPassword == null) {
+            wikiPassword = DEFAULT_WIKI_PASSWORD;
+        }
+        if (sessionDir == null) {
+            sessionDir = System.getProperty("user.home") + "/" + DEFAULT_SESSION_DIR;
+        }
+
+        if (accountsFile != null) {
+            SessionStore sessionStore = new SessionStore(sessionDir);
+            WikiMigrator wiki = new WikiMigrator(null, WikiSession.login(wikiUrl, wikiUser,
+                    wikiPassword, sessionStore), CHT_ROOT);
+            if (splitPages != null) {
+                wiki.setSplitThreshold(Integer.parseInt(splitPages));
+            }
+            if (converter != null) {
+                wiki.setConverters(WikiConverterPool.forName(converter));
+            }
+            MultiAccountMigrator migrator = new MultiAccountMigrator(APPLICATION_NAME, host,
+                    wiki, sessionStore,
+                    threads == null ? DEFAULT_ACCOUNT_THREADS : Integer.parseInt(threads),
+                    rate == null ? 0 : Double.parseDouble(rate));
+            migrator.setLog(System.out);
+            migrator.migrateAll(MultiAccountMigrator.loadAccounts(accountsFile));
+            return;
+        }
 
         GoogleDocMigrationDemo demo = new GoogleDocMigrationDemo(System.out, APPLICATION_NAME,
-                host);
+                host, wikiUrl, wikiUser, wikiPassword, new SessionStore(sessionDir));
+
+        if (parser.containsKey("json") || fields != null) {
+            demo.setJsonOutput(fields);
+        }
+        if (splitPages != null) {
+            demo.setSplitThreshold(Integer.parseInt(splitPages));
+        }
+        if (converter != null) {
+            demo.setConverters(WikiConverterPool.forName(converter));
+        }
 
         if (password != null) {
             demo.login(user, password);
@@ -586,6 +1722,18 @@ public class GoogleDocMigrationDemo {
             demo.login(authSub);
         }
 
+        if (ledger != null) {
+            String[] parts = (shard == null ? "0/1" : shard).split("/");
+            if (parts.length != 2) {
+                printMessage(USAGE_MESSAGE);
+                System.exit(1);
+            }
+            demo.runSharded(new WorkLedger(new File(ledger), lease == null
+                            ? WorkLedger.DEFAULT_LEASE_MILLIS : Long.parseLong(lease) * 1000),
+                    Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+            return;
+        }
+
         demo.run();
     }
 }
\ No newline at end of file
@@ -0,0 +1,435 @@
+package docs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs shell commands as background jobs, so that the prompt comes back while
+ * they run.
+ *
+ * Jobs run a few at a time and the rest wait their turn. Whatever a job prints
+ * through the stream from {@link #wrap} is kept with the job instead of going
+ * to the console, up to its last {@link #MAX_OUTPUT_LINES} lines. Only the
+ * last {@link #MAX_ENDED_JOBS} jobs that ended are kept. Cancelling a job
+ * interrupts its thread and closes the streams it registered with
+ * {@link #closeOnCancel}, which stops a download even while it is blocked
+ * reading. Helper threads of a job take part in this too when they run their
+ * work through {@link #inCurrentJob}.
+ *
+ * A job manager may be used from several threads at once.
+ */
+public class JobManager {
+    public static final int DEFAULT_THREADS = 4;
+    /** The most lines of output kept for each job. */
+    public static final int MAX_OUTPUT_LINES = 1000;
+    /** The most jobs kept once they have ended. */
+    public static final int MAX_ENDED_JOBS = 50;
+
+    // A line without a newline is cut at this length.
+    private static final int MAX_LINE_BYTES = 8 * 1024;
+
+    /**
+     * The state of a job.
+     */
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private static final ThreadLocal<Job> CURRENT = new ThreadLocal<Job>();
+
+    private final ExecutorService executor;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Map<Integer, Job> jobs = new LinkedHashMap<Integer, Job>();
+    private final List<Job> finished = new ArrayList<Job>();
+
+    /**
+     * Constructor.
+     *
+     * @param threads the most jobs running at once.
+     */
+    public JobManager(int threads) {
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "job-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts a job, or queues it if the most jobs are already running.
+     *
+     * @param command the command line, to show in listings.
+     * @param work what the job does.
+     *
+     * @return the new job.
+     */
+    public Job submit(String command, final Callable<?> work) {
+        final Job job = new Job(nextId.getAndIncrement(), command);
+        synchronized (this) {
+            jobs.put(job.getId(), job);
+        }
+        job.setFuture(executor.submit(new Runnable() {
+            public void run() {
+                if (!job.start()) {
+                    return;
+                }
+                CURRENT.set(job);
+                try {
+                    work.call();
+                    job.finish(null);
+                } catch (Throwable t) {
+                    job.finish(t);
+                } finally {
+                    CURRENT.remove();
+                    job.output.flush();
+                    synchronized (JobManager.this) {
+                        finished.add(job);
+                        removeEndedJobs();
+                    }
+                }
+            }
+        }));
+        return job;
+    }
+
+    /**
+     * Gets a job, or null if there is no job with the id.
+     */
+    public synchronized Job getJob(int id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Gets every job submitted, oldest first.
+     */
+    public synchronized List<Job> getJobs() {
+        return new ArrayList<Job>(jobs.values());
+    }
+
+    /**
+     * Gets the jobs that ended since the last call, to tell the user about.
+     */
+    public synchronized List<Job> takeFinished() {
+        List<Job> taken = new ArrayList<Job>(finished);
+        finished.clear();
+        return taken;
+    }
+
+    /**
+     * Forgets the oldest jobs that ended, beyond the most kept.
+     */
+    private synchronized void removeEndedJobs() {
+        int ended = 0;
+        for (Job job : jobs.values()) {
+            if (job.isEnded()) {
+                ended++;
+            }
+        }
+        Iterator<Job> i = jobs.values().iterator();
+        while (ended > MAX_ENDED_JOBS && i.hasNext()) {
+            if (i.next().isEnded()) {
+                i.remove();
+                ended--;
+            }
+        }
+    }
+
+    /**
+     * Wraps a console stream so that whatever a job prints through it is kept
+     * with the job, while everything else still goes to the console.
+     */
+    public PrintStream wrap(final PrintStream console) {
+        return new PrintStream(new OutputStream() {
+            public void write(int b) {
+                target().write(b);
+            }
+
+            public void write(byte[] b, int off, int len) {
+                target().write(b, off, len);
+            }
+
+            public void flush() {
+                target().flush();
+            }
+
+            private PrintStream target() {
+                Job job = CURRENT.get();
+                return job == null ? console : job.output;
+            }
+        }, true);
+    }
+
+    /**
+     * Gets the stream the job running on the calling thread prints to, for
+     * handing to helper threads that print on its behalf.
+     *
+     * @param console the stream to use outside of jobs.
+     */
+    public static PrintStream getOutput(PrintStream console) {
+        Job job = CURRENT.get();
+        return job == null ? console : job.output;
+    }
+
+    /**
+     * Wraps work for a helper thread so that it runs as part of the job
+     * running on the calling thread: it prints to the job and the streams it
+     * gives to {@link #closeOnCancel} are closed when the job is cancelled.
+     * Outside of jobs the work is returned as it is.
+     */
+    public static Runnable inCurrentJob(final Runnable work) {
+        final Job job = CURRENT.get();
+        if (job == null) {
+            return work;
+        }
+        return new Runnable() {
+            public void run() {
+                Job previous = CURRENT.get();
+                CURRENT.set(job);
+                try {
+                    work.run();
+                } finally {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Closes a stream if the job running on the calling thread is cancelled
+     * while it is open, or at once if it already was. Does nothing outside of
+     * jobs.
+     */
+    public static void closeOnCancel(Closeable stream) {
+        Job job = CURRENT.get();
+        if (job != null && !job.register(stream)) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // The reader gets an error either way.
+            }
+        }
+    }
+
+    /**
+     * Stops watching a stream given to {@link #closeOnCancel}, once it is
+     * closed.
+     */
+    public static void forget(Closeable stream) {
+        Job job = CURRENT.get();
+        if (job != null) {
+            job.unregister(stream);
+        }
+    }
+
+    /**
+     * A command running in the background.
+     */
+    public static class Job {
+        private final int id;
+        private final String command;
+        private final TailBuffer buffer = new TailBuffer(MAX_OUTPUT_LINES);
+        private final PrintStream output = new PrintStream(buffer, true);
+        private final Set<Closeable> streams = new HashSet<Closeable>();
+        private State state = State.QUEUED;
+        private long startMillis;
+        private long endMillis;
+        private Throwable failure;
+        private Future<?> future;
+
+        private Job(int id, String command) {
+            this.id = id;
+            this.command = command;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * Gets how long the job has run, or 0 while it is queued.
+         */
+        public synchronized long getElapsedMillis() {
+            if (startMillis == 0) {
+                return 0;
+            }
+            return (endMillis == 0 ? System.currentTimeMillis() : endMillis) - startMillis;
+        }
+
+        /**
+         * Gets what failed the job, or null.
+         */
+        public synchronized Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * Gets the last lines the job has printed so far, after a note of how
+         * many earlier ones were dropped, if any.
+         */
+        public String getOutput() {
+            return buffer.toString();
+        }
+
+        /**
+         * Cancels the job. A queued job never starts; a running one is
+         * interrupted and its registered streams are closed.
+         *
+         * @return false if the job had already ended.
+         */
+        public boolean cancel() {
+            List<Closeable> open;
+            synchronized (this) {
+                if (state != State.QUEUED && state != State.RUNNING) {
+                    return false;
+                }
+                if (state == State.QUEUED) {
+                    endMillis = System.currentTimeMillis();
+                    startMillis = endMillis;
+                }
+                state = State.CANCELLED;
+                open = new ArrayList<Closeable>(streams);
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+            for (Closeable stream : open) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // The reader gets an error either way.
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + id + "] " + getState().name().toLowerCase() + " "
+                    + (getElapsedMillis() / 1000) + " s  " + command;
+        }
+
+        private synchronized void setFuture(Future<?> future) {
+            this.future = future;
+            if (state == State.CANCELLED) {
+                future.cancel(true);
+            }
+        }
+
+        private synchronized boolean isEnded() {
+            return state != State.QUEUED && state != State.RUNNING;
+        }
+
+        private synchronized boolean start() {
+            if (state != State.QUEUED) {
+                return false;
+            }
+            state = State.RUNNING;
+            startMillis = System.currentTimeMillis();
+            return true;
+        }
+
+        private synchronized void finish(Throwable t) {
+            endMillis = System.currentTimeMillis();
+            if (state == State.RUNNING) {
+                state = t == null ? State.DONE : State.FAILED;
+            }
+            failure = t;
+            streams.clear();
+            // Clear an interrupt from cancel so it does not hit the next job.
+            Thread.interrupted();
+        }
+
+        /**
+         * Returns false instead if the job was cancelled, since a helper
+         * thread may open a stream after that.
+         */
+        private synchronized boolean register(Closeable stream) {
+            if (state == State.CANCELLED) {
+                return false;
+            }
+            streams.add(stream);
+            return true;
+        }
+
+        private synchronized void unregister(Closeable stream) {
+            streams.remove(stream);
+        }
+    }
+
+    /**
+     * Keeps the last lines written to it.
+     */
+    private static class TailBuffer extends OutputStream {
+        private final int maxLines;
+        private final Deque<byte[]> lines = new ArrayDeque<byte[]>();
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private long dropped;
+
+        TailBuffer(int maxLines) {
+            this.maxLines = maxLines;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            line.write(b);
+            if (b == '\n' || line.size() >= MAX_LINE_BYTES) {
+                lines.addLast(line.toByteArray());
+                line.reset();
+                if (lines.size() > maxLines) {
+                    lines.removeFirst();
+                    dropped++;
+                }
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            for (byte[] bytes : lines) {
+                all.write(bytes, 0, bytes.length);
+            }
+            byte[] partial = line.toByteArray();
+            all.write(partial, 0, partial.length);
+            // Decoded the way the console stream encoded it.
+            String text = all.toString();
+            return dropped == 0 ? text : "[" + dropped + " earlier lines dropped]\n" + text;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package docs;
+
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.Link;
+import com.google.gdata.data.Person;
+import com.google.gdata.data.docs.DocumentListEntry;
+import com.google.gdata.data.docs.RevisionEntry;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes document and revision entries as JSON Lines, one object per line, for
+ * other tools to consume.
+ *
+ * Lines go through a buffered writer and nothing is kept between entries, so
+ * whole-account listings are written in constant memory. Only the projected
+ * fields are written, in the order they were asked for.
+ */
+public class JsonLinesWriter implements Closeable, Flushable {
+    /** The fields written for a document entry, in the default order. */
+    public static final List<String> DOCUMENT_FIELDS = Collections.unmodifiableList(
+            Arrays.asList("resourceId", "title", "type", "etag", "updated", "lastViewed",
+                    "parents", "quotaBytesUsed", "md5Checksum", "link"));
+
+    /** The fields written for a revision entry, in the default order. */
+    public static final List<String> REVISION_FIELDS = Collections.unmodifiableList(
+            Arrays.asList("id", "title", "updated", "author", "email", "link"));
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+    private final List<String> fields;
+    private final StringBuilder line = new StringBuilder();
+    private long count;
+
+    /**
+     * Constructor.
+     *
+     * @param writer the writer to write lines to. It is buffered here.
+     * @param fields a comma separated list of the fields to write, or null for
+     *        all of them.
+     */
+    public JsonLinesWriter(Writer writer, String fields) {
+        this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+        this.fields = parseFields(fields);
+    }
+
+    /**
+     * Gets the number of lines written so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Writes a document entry.
+     *
+     * @param doc the document entry to write.
+     *
+     * @throws IOException
+     */
+    public void writeDocumentEntry(DocumentListEntry doc) throws IOException {
+        beginLine();
+        for (String field : fields == null ? DOCUMENT_FIELDS : fields) {
+            if (field.equals("resourceId")) {
+                appendField(field, doc.getResourceId());
+            } else if (field.equals("title")) {
+                appendField(field, doc.getTitle() == null ? null : doc.getTitle().getPlainText());
+            } else if (field.equals("type")) {
+                appendField(field, doc.getType());
+            } else if (field.equals("etag")) {
+                appendField(field, doc.getEtag());
+            } else if (field.equals("updated")) {
+                appendField(field, doc.getUpdated());
+            } else if (field.equals("lastViewed")) {
+                appendField(field, doc.getLastViewed());
+            } else if (field.equals("parents")) {
+                appendParents(doc.getParentLinks());
+            } else if (field.equals("quotaBytesUsed")) {
+                appendName(field);
+                line.append(doc.getQuotaBytesUsed() == null ? "null" : doc.getQuotaBytesUsed());
+            } else if (field.equals("md5Checksum")) {
+                appendField(field, doc.getMd5Checksum());
+            } else if (field.equals("link")) {
+                appendField(field, doc.getHtmlLink() == null ? null : doc.getHtmlLink().getHref());
+            }
+        }
+        endLine();
+    }
+
+    /**
+     * Writes a revision entry.
+     *
+     * @param entry the revision entry to write.
+     *
+     * @throws IOException
+     */
+    public void writeRevisionEntry(RevisionEntry entry) throws IOException {
+        Person user = entry.getModifyingUser();
+        beginLine();
+        for (String field : fields == null ? REVISION_FIELDS : fields) {
+            if (field.equals("id")) {
+                appendField(field, entry.getId());
+            } else if (field.equals("title")) {
+                appendField(field, entry.getTitle() == null ? null
+                        : entry.getTitle().getPlainText());
+            } else if (field.equals("updated")) {
+                appendField(field, entry.getUpdated());
+            } else if (field.equals("author")) {
+                appendField(field, user == null ? null : user.getName());
+            } else if (field.equals("email")) {
+                appendField(field, user == null ? null : user.getEmail());
+            } else if (field.equals("link")) {
+                appendField(field, entry.getHtmlLink() == null ? null
+                        : entry.getHtmlLink().getHref());
+            }
+        }
+        endLine();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void beginLine() {
+        line.setLength(0);
+        line.append('{');
+    }
+
+    private void endLine() throws IOException {
+        line.append("}\n");
+        writer.append(line);
+        count++;
+    }
+
+    private void appendName(String name) {
+        if (line.length() > 1) {
+            line.append(',');
+        }
+        appendString(name);
+        line.append(':');
+    }
+
+    private void appendField(String name, DateTime value) {
+        appendField(name, value == null ? null : value.toString());
+    }
+
+    private void appendField(String name, String value) {
+        appendName(name);
+        if (value == null) {
+            line.append("null");
+        } else {
+            appendString(value);
+        }
+    }
+
+    private void appendParents(List<Link> parents) {
+        appendName("parents");
+        line.append('[');
+        for (int i = 0; parents != null && i < parents.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            Link link = parents.get(i);
+            String href = link.getHref();
+            line.append("{\"title\":");
+            appendString(link.getTitle() == null ? "" : link.getTitle());
+            line.append(",\"resourceId\":");
+            if (href == null) {
+                line.append("null");
+            } else {
+                // The parent link points at the folder entry, whose id ends the URL.
+                appendString(href.substring(href.lastIndexOf('/') + 1).replace("%3A", ":"));
+            }
+            line.append('}');
+        }
+        line.append(']');
+    }
+
+    private void appendString(String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    private static List<String> parseFields(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return null;
+        }
+        List<String> result = new ArrayList<String>();
+        for (String field : fields.split(",")) {
+            if (!field.trim().isEmpty()) {
+                result.add(field.trim());
+            }
+        }
+        return result;
+    }
+}
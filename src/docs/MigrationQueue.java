@@ -0,0 +1,292 @@
+package docs;
+
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.docs.DocumentListEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Migrates a batch of documents in priority order, with separate lanes for
+ * small and large documents.
+ *
+ * Documents are sorted by the configured keys, then split by size. Workers
+ * always take the next small document first, and only a few of them may work
+ * on large ones while small ones are waiting, so a handful of huge exports
+ * cannot hold up everything behind them. Once the fast lane is empty, every
+ * worker steals from the slow lane.
+ */
+public class MigrationQueue {
+    /** The default size above which a document goes to the slow lane. */
+    public static final long DEFAULT_SLOW_BYTES = 5 * 1024 * 1024;
+
+    private final int threads;
+    private final int slowThreads;
+    private final long slowBytes;
+
+    private final Deque<Integer> fastLane = new ArrayDeque<Integer>();
+    private final Deque<Integer> slowLane = new ArrayDeque<Integer>();
+    private int slowRunning;
+    private int fastRemaining;
+    private long fastLaneMillis;
+    private volatile ProgressReporter progress;
+
+    /**
+     * Constructor.
+     *
+     * @param threads the number of workers.
+     * @param slowThreads the most workers on slow documents while fast ones
+     *        are waiting.
+     * @param slowBytes the size above which a document goes to the slow lane.
+     */
+    public MigrationQueue(int threads, int slowThreads, long slowBytes) {
+        this.threads = Math.max(1, threads);
+        this.slowThreads = Math.max(1, Math.min(slowThreads, this.threads));
+        this.slowBytes = slowBytes;
+    }
+
+    /**
+     * Gets how long the last run took to finish every document of the fast
+     * lane, in milliseconds, or 0 if it had none.
+     */
+    public synchronized long getFastLaneMillis() {
+        return fastLaneMillis;
+    }
+
+    /**
+     * Sets the reporter that counts every document done or failed.
+     *
+     * @param progress the reporter, or null to count nothing.
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Builds an ordering from a comma separated list of keys, applied in turn
+     * to break ties:
+     *     "priority": documents in the priority list first, in its order.
+     *     "size": smallest first.
+     *     "updated": most recently updated first.
+     *     "viewed": most recently viewed first.
+     *     "title": alphabetical.
+     * A key prefixed with '-' is reversed.
+     *
+     * @param keys the keys, such as "priority,-viewed,size".
+     * @param priority resource ids or titles to migrate first, or null.
+     *
+     * @throws DocumentListException if a key is unknown.
+     */
+    public static Comparator<DocumentListEntry> getOrder(String keys, List<String> priority)
+            throws DocumentListException {
+        final List<Comparator<DocumentListEntry>> order =
+                new ArrayList<Comparator<DocumentListEntry>>();
+        for (String key : keys.split(",")) {
+            key = key.trim();
+            boolean reversed = key.startsWith("-");
+            if (reversed) {
+                key = key.substring(1);
+            }
+            Comparator<DocumentListEntry> comparator = getKey(key, priority);
+            order.add(reversed ? Collections.reverseOrder(comparator) : comparator);
+        }
+        return new Comparator<DocumentListEntry>() {
+            public int compare(DocumentListEntry a, DocumentListEntry b) {
+                for (Comparator<DocumentListEntry> comparator : order) {
+                    int c = comparator.compare(a, b);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Migrates documents, and waits until done.
+     *
+     * @param entries the documents to migrate, from a listing feed.
+     * @param order the order to migrate them in, or null for listing order.
+     * @param migrator the migrator to migrate them with.
+     *
+     * @return the result of each document, in the order of entries.
+     *
+     * @throws InterruptedException
+     */
+    public List<BulkResult<DocumentListEntry>> migrate(final List<DocumentListEntry> entries,
+            final Comparator<DocumentListEntry> order, final WikiMigrator migrator)
+            throws InterruptedException {
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = 0; i < entries.size(); i++) {
+            indexes.add(i);
+        }
+        if (order != null) {
+            Collections.sort(indexes, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return order.compare(entries.get(a), entries.get(b));
+                }
+            });
+        }
+        synchronized (this) {
+            fastLane.clear();
+            slowLane.clear();
+            for (int index : indexes) {
+                (isSlow(entries.get(index)) ? slowLane : fastLane).add(index);
+            }
+            fastRemaining = fastLane.size();
+            fastLaneMillis = 0;
+        }
+        final long start = System.currentTimeMillis();
+        final ProgressReporter reporter = progress;
+
+        final List<BulkResult<DocumentListEntry>> results =
+                new ArrayList<BulkResult<DocumentListEntry>>(Collections.nCopies(entries.size(),
+                        (BulkResult<DocumentListEntry>) null));
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            // Workers run as part of the calling job, so cancelling it closes
+            // their downloads.
+            Thread worker = new Thread(JobManager.inCurrentJob(new Runnable() {
+                public void run() {
+                    Integer index;
+                    while ((index = take()) != null) {
+                        DocumentListEntry entry = entries.get(index);
+                        boolean slow = isSlow(entry);
+                        try {
+                            migrator.migrate(entry, null);
+                            results.set(index, new BulkResult<DocumentListEntry>(entry, true,
+                                    0, null));
+                            if (reporter != null) {
+                                reporter.documentDone();
+                            }
+                        } catch (Exception e) {
+                            results.set(index, new BulkResult<DocumentListEntry>(entry, false,
+                                    0, e.getMessage()));
+                            if (reporter != null) {
+                                reporter.documentFailed();
+                            }
+                        } finally {
+                            finish(slow, start);
+                        }
+                    }
+                }
+            }), "migrate-" + (i + 1));
+            workers.add(worker);
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                fastLane.clear();
+                slowLane.clear();
+            }
+            // Stop the documents in flight too, such as their downloads.
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Takes the next document for a worker, or null when both lanes are empty.
+     */
+    private synchronized Integer take() {
+        if (!fastLane.isEmpty() && (slowLane.isEmpty() || slowRunning >= slowThreads)) {
+            return fastLane.poll();
+        }
+        if (!slowLane.isEmpty()) {
+            // Either there is a free slow worker slot, or the fast lane is
+            // empty and this worker steals from the slow lane.
+            slowRunning++;
+            return slowLane.poll();
+        }
+        return fastLane.poll();
+    }
+
+    private synchronized void finish(boolean slow, long start) {
+        if (slow) {
+            slowRunning--;
+        } else if (--fastRemaining == 0) {
+            fastLaneMillis = System.currentTimeMillis() - start;
+        }
+    }
+
+    private boolean isSlow(DocumentListEntry entry) {
+        Long size = entry.getQuotaBytesUsed();
+        return size != null && size > slowBytes;
+    }
+
+    private static Comparator<DocumentListEntry> getKey(String key, List<String> priority)
+            throws DocumentListException {
+        if (key.equals("priority")) {
+            final Map<String, Integer> ranks = new HashMap<String, Integer>();
+            if (priority != null) {
+                for (int i = priority.size() - 1; i >= 0; i--) {
+                    ranks.put(priority.get(i), i);
+                }
+            }
+            return new Comparator<DocumentListEntry>() {
+                public int compare(DocumentListEntry a, DocumentListEntry b) {
+                    return rank(a) - rank(b);
+                }
+
+                private int rank(DocumentListEntry entry) {
+                    Integer rank = ranks.get(entry.getResourceId());
+                    if (rank == null && entry.getTitle() != null) {
+                        rank = ranks.get(entry.getTitle().getPlainText());
+                    }
+                    return rank == null ? Integer.MAX_VALUE : rank;
+                }
+            };
+        } else if (key.equals("size")) {
+            return new Comparator<DocumentListEntry>() {
+                public int compare(DocumentListEntry a, DocumentListEntry b) {
+                    return Long.compare(size(a), size(b));
+                }
+
+                private long size(DocumentListEntry entry) {
+                    return entry.getQuotaBytesUsed() == null ? 0 : entry.getQuotaBytesUsed();
+                }
+            };
+        } else if (key.equals("updated")) {
+            return new Comparator<DocumentListEntry>() {
+                public int compare(DocumentListEntry a, DocumentListEntry b) {
+                    return Long.compare(millis(b.getUpdated()), millis(a.getUpdated()));
+                }
+            };
+        } else if (key.equals("viewed")) {
+            return new Comparator<DocumentListEntry>() {
+                public int compare(DocumentListEntry a, DocumentListEntry b) {
+                    return Long.compare(millis(b.getLastViewed()), millis(a.getLastViewed()));
+                }
+            };
+        } else if (key.equals("title")) {
+            return new Comparator<DocumentListEntry>() {
+                public int compare(DocumentListEntry a, DocumentListEntry b) {
+                    return title(a).compareToIgnoreCase(title(b));
+                }
+
+                private String title(DocumentListEntry entry) {
+                    return entry.getTitle() == null ? "" : entry.getTitle().getPlainText();
+                }
+            };
+        }
+        throw new DocumentListException("unknown order key: " + key);
+    }
+
+    private static long millis(DateTime time) {
+        return time == null ? 0 : time.getValue();
+    }
+}
@@ -0,0 +1,259 @@
+package docs;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+import com.google.gdata.data.docs.DocumentListFeed;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Migrates the documents of many Google accounts in one process. Every
+ * account gets its own logged in {@link DocumentList}, and all of them share
+ * one pool of workers through a {@link FairScheduler}, so a huge account does
+ * not hold up the small ones and no account exceeds its rate limit.
+ */
+public class MultiAccountMigrator {
+    /**
+     * The credentials of one account.
+     */
+    public static class Account {
+        private final String username;
+        private final String password;
+
+        public Account(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+    }
+
+    /**
+     * The progress of one account.
+     */
+    private static class Progress {
+        final AtomicInteger listed = new AtomicInteger();
+        final AtomicInteger migrated = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        volatile String error;
+    }
+
+    private final String applicationName;
+    private final String host;
+    private final WikiMigrator wiki;
+    private final SessionStore sessionStore;
+    private final int threads;
+    private final double documentsPerSecond;
+    private PrintStream log;
+    private long progressMillis = ProgressReporter.DEFAULT_TICK_MILLIS;
+    private ProgressReporter reporter;
+    private ContentDeduplicator deduplicator;
+
+    /**
+     * Constructor.
+     *
+     * @param applicationName name of the application.
+     * @param host the host that contains the feeds.
+     * @param wiki a migrator for the wiki to publish to. Each account's
+     *        migrator shares its wiki, index page locks and split threshold.
+     * @param sessionStore where auth tokens are kept between runs, or null.
+     * @param threads the number of workers shared by all accounts.
+     * @param documentsPerSecond the most documents migrated per second for each
+     *        account, or 0 for no limit.
+     */
+    public MultiAccountMigrator(String applicationName, String host, WikiMigrator wiki,
+                                SessionStore sessionStore, int threads,
+                                double documentsPerSecond) {
+        this.applicationName = applicationName;
+        this.host = host;
+        this.wiki = wiki;
+        this.sessionStore = sessionStore;
+        this.threads = threads;
+        this.documentsPerSecond = documentsPerSecond;
+    }
+
+    /**
+     * Sets where to report progress and errors, or null for nowhere.
+     */
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    /**
+     * Sets how often to report the progress of all accounts together to the
+     * log, or 0 for never.
+     */
+    public void setProgressMillis(long progressMillis) {
+        this.progressMillis = progressMillis;
+    }
+
+    /**
+     * Reads a credentials file. Each line holds a user name and a password
+     * separated by whitespace. Blank lines and lines starting with '#' are
+     * skipped.
+     *
+     * @param path the path of the credentials file.
+     *
+     * @throws IOException
+     * @throws DocumentListException if a line is malformed.
+     */
+    public static List<Account> loadAccounts(String path) throws IOException,
+            DocumentListException {
+        List<Account> accounts = new ArrayList<Account>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(path), StandardCharsets.UTF_8));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+", 2);
+                if (fields.length != 2) {
+                    throw new DocumentListException(path + ":" + number
+                            + ": expected a user name and a password");
+                }
+                accounts.add(new Account(fields[0], fields[1]));
+            }
+        } finally {
+            reader.close();
+        }
+        return accounts;
+    }
+
+    /**
+     * Migrates every document of every account, and waits until done.
+     *
+     * @param accounts the accounts to migrate.
+     *
+     * @throws DocumentListException
+     * @throws InterruptedException
+     */
+    public void migrateAll(List<Account> accounts) throws DocumentListException,
+            InterruptedException {
+        FairScheduler scheduler = new FairScheduler(threads);
+        List<Progress> progress = new ArrayList<Progress>();
+        // Documents are added to the total as their accounts are listed.
+        reporter = new ProgressReporter(0);
+        // Copies are found across accounts too, since they share the wiki.
+        deduplicator = new ContentDeduplicator();
+        if (log != null && progressMillis > 0) {
+            reporter.start(log, progressMillis);
+        }
+        try {
+            for (Account account : accounts) {
+                DocumentList documentList = new DocumentList(applicationName, host);
+                documentList.setSessionStore(sessionStore);
+                Progress p = new Progress();
+                progress.add(p);
+                scheduler.setRateLimit(account.getUsername(), documentsPerSecond);
+                scheduler.submit(account.getUsername(),
+                        newLoginTask(scheduler, account, documentList, p));
+            }
+            scheduler.awaitIdle();
+        } finally {
+            scheduler.shutdown();
+            reporter.stop();
+        }
+
+        for (int i = 0; i < accounts.size(); i++) {
+            Progress p = progress.get(i);
+            report(accounts.get(i).getUsername() + ": " + p.migrated.get() + " of "
+                    + p.listed.get() + " documents migrated, " + p.failed.get() + " failed"
+                    + (p.error == null ? "" : " (" + p.error + ")"));
+        }
+        report(deduplicator.getDuplicateCount() + " documents were copies of others and"
+                + " became redirects.");
+    }
+
+    private Runnable newLoginTask(final FairScheduler scheduler, final Account account,
+                                  final DocumentList documentList, final Progress progress) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    documentList.login(account.getUsername(), account.getPassword());
+                    DocumentListFeed feed = documentList.getDocsListFeed("documents",
+                            DocumentList.FIELDS_SUMMARY);
+                    scheduler.submit(account.getUsername(), newPageTask(scheduler,
+                            account.getUsername(), documentList, feed, progress));
+                } catch (Exception e) {
+                    progress.error = e.getMessage();
+                    report(account.getUsername() + ": " + e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * Queues the documents of one page of a listing, then the fetch of the
+     * next page, so a long listing takes its turn like any other task.
+     */
+    private Runnable newPageTask(final FairScheduler scheduler, final String username,
+                                 final DocumentList documentList, final DocumentListFeed feed,
+                                 final Progress progress) {
+        return new Runnable() {
+            public void run() {
+                WikiMigrator migrator = new WikiMigrator(documentList, wiki);
+                migrator.setProgress(reporter);
+                migrator.setDeduplicator(deduplicator);
+                reporter.addTotal(feed.getEntries().size());
+                for (DocumentListEntry entry : feed.getEntries()) {
+                    progress.listed.incrementAndGet();
+                    scheduler.submit(username, newMigrateTask(username, migrator, entry,
+                            progress));
+                }
+                try {
+                    DocumentListFeed next = documentList.getNextFeed(feed);
+                    if (next != null) {
+                        scheduler.submit(username, newPageTask(scheduler, username,
+                                documentList, next, progress));
+                    }
+                } catch (Exception e) {
+                    progress.error = e.getMessage();
+                    report(username + ": listing stopped: " + e.getMessage());
+                }
+            }
+        };
+    }
+
+    private Runnable newMigrateTask(final String username, final WikiMigrator migrator,
+                                    final DocumentListEntry entry, final Progress progress) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    String title = migrator.migrate(entry, null);
+                    progress.migrated.incrementAndGet();
+                    reporter.documentDone();
+                    report(username + ": -- " + title);
+                } catch (Exception e) {
+                    progress.failed.incrementAndGet();
+                    reporter.documentFailed();
+                    report(username + ": failed " + entry.getResourceId() + ": "
+                            + e.getMessage());
+                }
+            }
+        };
+    }
+
+    private void report(String message) {
+        if (log != null) {
+            log.println(message);
+        }
+    }
+}
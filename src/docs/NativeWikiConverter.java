@@ -0,0 +1,443 @@
+package docs;
+
+import java.util.Locale;
+
+/**
+ * Converts HTML in one pass over the text, without building a node tree.
+ *
+ * It handles the markup Google Docs exports: headings, paragraphs, line
+ * breaks, bold and italic tags, links, nested lists and tables. Everything in
+ * the head, styles and scripts is dropped, and so is formatting that only CSS
+ * classes carry. Other tags are dropped while their text is kept.
+ *
+ * The output buffer is kept between documents, so a warm converter allocates
+ * little more than the returned string.
+ */
+public class NativeWikiConverter implements WikiConverter {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // A buffer grown past this by a huge document is not kept for the next one.
+    private static final int MAX_KEPT_CAPACITY = 4 * 1024 * 1024;
+
+    private StringBuilder wiki = new StringBuilder(INITIAL_CAPACITY);
+    // One '*' or '#' per open list, innermost last.
+    private final StringBuilder lists = new StringBuilder();
+    // Inside the head, a style or a script, whose text is not shown.
+    private int hiddenDepth;
+    private int tableDepth;
+    // The target of the open link, or null.
+    private String linkHref;
+    private int linkStart;
+    private boolean pendingSpace;
+
+    public String toWiki(String html) {
+        wiki.setLength(0);
+        lists.setLength(0);
+        hiddenDepth = 0;
+        tableDepth = 0;
+        linkHref = null;
+        pendingSpace = false;
+
+        int length = html.length();
+        int i = 0;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                i = readTag(html, i);
+            } else if (c == '&') {
+                i = readEntity(html, i);
+            } else {
+                text(c);
+                i++;
+            }
+        }
+
+        trimTrailingWhitespace();
+        int start = 0;
+        while (start < wiki.length() && wiki.charAt(start) == '\n') {
+            start++;
+        }
+        String result = wiki.substring(start);
+        if (wiki.capacity() > MAX_KEPT_CAPACITY) {
+            wiki = new StringBuilder(INITIAL_CAPACITY);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the tag, comment or declaration at a '<'.
+     *
+     * @return the index after it.
+     */
+    private int readTag(String html, int start) {
+        if (html.startsWith("<!--", start)) {
+            int end = html.indexOf("-->", start + 4);
+            return end < 0 ? html.length() : end + 3;
+        }
+        int i = start + 1;
+        boolean closing = i < html.length() && html.charAt(i) == '/';
+        if (closing) {
+            i++;
+        }
+        int nameStart = i;
+        while (i < html.length() && Character.isLetterOrDigit(html.charAt(i))) {
+            i++;
+        }
+        if (i == nameStart && !closing
+                && (i >= html.length() || html.charAt(i) != '!' && html.charAt(i) != '?')) {
+            // A lone '<' in text.
+            text('<');
+            return start + 1;
+        }
+        String name = html.substring(nameStart, i).toLowerCase(Locale.ROOT);
+
+        // Find the end of the tag, skipping '>' inside quoted attributes.
+        int attributesStart = i;
+        char quote = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                break;
+            }
+            i++;
+        }
+        String attributes = html.substring(attributesStart, i);
+        if (closing) {
+            endTag(name);
+        } else {
+            startTag(name, attributes);
+            if (attributes.endsWith("/")) {
+                endTag(name);
+            }
+        }
+        return Math.min(i + 1, html.length());
+    }
+
+    private void startTag(String name, String attributes) {
+        if (isHidden(name)) {
+            hiddenDepth++;
+            return;
+        }
+        if (hiddenDepth > 0) {
+            return;
+        }
+        int level = getHeadingLevel(name);
+        if (level > 0) {
+            paragraph();
+            repeat('=', level);
+            wiki.append(' ');
+        } else if (name.equals("p") || name.equals("div")) {
+            blockBreak();
+        } else if (name.equals("br")) {
+            if (lists.length() > 0 || tableDepth > 0) {
+                wiki.append("<br />");
+            } else {
+                newline();
+            }
+        } else if (name.equals("b") || name.equals("strong")) {
+            inline("'''");
+        } else if (name.equals("i") || name.equals("em")) {
+            inline("''");
+        } else if (name.equals("u")) {
+            inline("<u>");
+        } else if (name.equals("s") || name.equals("strike") || name.equals("del")) {
+            inline("<s>");
+        } else if (name.equals("a")) {
+            String href = getAttribute(attributes, "href");
+            if (href != null && !href.isEmpty() && !href.startsWith("#")) {
+                inline("");
+                linkHref = escapeHref(href.replace("&amp;", "&"));
+                linkStart = wiki.length();
+            }
+        } else if (name.equals("ul") || name.equals("ol")) {
+            if (lists.length() == 0) {
+                paragraph();
+            }
+            lists.append(name.equals("ul") ? '*' : '#');
+        } else if (name.equals("li")) {
+            newline();
+            wiki.append(lists.length() == 0 ? "*" : lists).append(' ');
+        } else if (name.equals("table")) {
+            paragraph();
+            wiki.append("{| class=\"wikitable\"");
+            tableDepth++;
+        } else if (name.equals("tr") && tableDepth > 0) {
+            newline();
+            wiki.append("|-");
+        } else if ((name.equals("td") || name.equals("th")) && tableDepth > 0) {
+            newline();
+            wiki.append(name.equals("th") ? "! " : "| ");
+        } else if (name.equals("hr")) {
+            paragraph();
+            wiki.append("----");
+            paragraph();
+        }
+    }
+
+    private void endTag(String name) {
+        if (isHidden(name)) {
+            hiddenDepth = Math.max(0, hiddenDepth - 1);
+            return;
+        }
+        if (hiddenDepth > 0) {
+            return;
+        }
+        int level = getHeadingLevel(name);
+        if (level > 0) {
+            trimTrailingWhitespace();
+            wiki.append(' ');
+            repeat('=', level);
+            paragraph();
+        } else if (name.equals("p") || name.equals("div")) {
+            blockBreak();
+        } else if (name.equals("b") || name.equals("strong")) {
+            wiki.append("'''");
+        } else if (name.equals("i") || name.equals("em")) {
+            wiki.append("''");
+        } else if (name.equals("u")) {
+            wiki.append("</u>");
+        } else if (name.equals("s") || name.equals("strike") || name.equals("del")) {
+            wiki.append("</s>");
+        } else if (name.equals("a")) {
+            if (linkHref != null) {
+                // A block inside the link may have trimmed text before it.
+                int start = Math.min(linkStart, wiki.length());
+                String label = wiki.substring(start).trim();
+                wiki.setLength(start);
+                wiki.append('[').append(linkHref);
+                if (!label.isEmpty()) {
+                    wiki.append(' ').append(label);
+                }
+                wiki.append(']');
+                linkHref = null;
+            }
+        } else if (name.equals("ul") || name.equals("ol")) {
+            if (lists.length() > 0) {
+                lists.setLength(lists.length() - 1);
+            }
+            if (lists.length() == 0) {
+                paragraph();
+            }
+        } else if (name.equals("table") && tableDepth > 0) {
+            newline();
+            wiki.append("|}");
+            tableDepth--;
+            paragraph();
+        }
+    }
+
+    /**
+     * Reads a character reference at a '&'. The markup-significant ones are
+     * kept as references, so that the wiki shows them as text.
+     *
+     * @return the index after it.
+     */
+    private int readEntity(String html, int start) {
+        if (hiddenDepth > 0) {
+            return start + 1;
+        }
+        int end = html.indexOf(';', start);
+        if (end < 0 || end - start > 10) {
+            text('&');
+            return start + 1;
+        }
+        String name = html.substring(start + 1, end);
+        if (name.equals("amp") || name.equals("lt") || name.equals("gt")) {
+            inline("&" + name + ";");
+        } else if (name.equals("quot")) {
+            text('"');
+        } else if (name.equals("apos")) {
+            text('\'');
+        } else if (name.equals("nbsp")) {
+            text(' ');
+        } else if (name.startsWith("#")) {
+            int codePoint;
+            try {
+                codePoint = name.startsWith("#x") || name.startsWith("#X")
+                        ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+            } catch (NumberFormatException e) {
+                text('&');
+                return start + 1;
+            }
+            if (!Character.isValidCodePoint(codePoint)) {
+                text('&');
+                return start + 1;
+            }
+            for (char c : Character.toChars(codePoint)) {
+                text(c);
+            }
+        } else {
+            text('&');
+            return start + 1;
+        }
+        return end + 1;
+    }
+
+    /**
+     * Appends a character of text, collapsing runs of whitespace. Characters
+     * the wiki would take for markup are written as character references:
+     * tildes, which sign, braces, which call templates, cell separators inside
+     * tables, and list, indent and heading marks at the start of a line.
+     */
+    private void text(char c) {
+        if (hiddenDepth > 0) {
+            return;
+        }
+        if (Character.isWhitespace(c)) {
+            pendingSpace = true;
+            return;
+        }
+        inline("");
+        boolean lineStart = wiki.length() == 0 || wiki.charAt(wiki.length() - 1) == '\n';
+        if (c == '~' || c == '{' || c == '}'
+                || tableDepth > 0 && (c == '|' || c == '!')
+                || lineStart && (c == '*' || c == '#' || c == '=' || c == ':' || c == ';'
+                        || c == '-')) {
+            wiki.append("&#").append((int) c).append(';');
+        } else {
+            wiki.append(c);
+        }
+    }
+
+    /**
+     * Appends inline markup, after the space that text before it ended with.
+     */
+    private void inline(String markup) {
+        if (pendingSpace && wiki.length() > 0) {
+            char last = wiki.charAt(wiki.length() - 1);
+            if (last != ' ' && last != '\n') {
+                wiki.append(' ');
+            }
+        }
+        pendingSpace = false;
+        wiki.append(markup);
+    }
+
+    /**
+     * Breaks a paragraph, or only separates words inside a list or table,
+     * where a blank line would end the item or cell.
+     */
+    private void blockBreak() {
+        if (lists.length() > 0 || tableDepth > 0) {
+            pendingSpace = true;
+        } else {
+            paragraph();
+        }
+    }
+
+    private void newline() {
+        // Keep a paragraph break that is already there.
+        int end = wiki.length();
+        while (end > 0 && wiki.charAt(end - 1) == ' ') {
+            end--;
+        }
+        wiki.setLength(end);
+        if (end > 0 && wiki.charAt(end - 1) != '\n') {
+            wiki.append('\n');
+        }
+        pendingSpace = false;
+    }
+
+    private void paragraph() {
+        trimTrailingWhitespace();
+        if (wiki.length() > 0) {
+            wiki.append("\n\n");
+        }
+        pendingSpace = false;
+    }
+
+    private void trimTrailingWhitespace() {
+        int end = wiki.length();
+        while (end > 0 && Character.isWhitespace(wiki.charAt(end - 1))) {
+            end--;
+        }
+        wiki.setLength(end);
+    }
+
+    private void repeat(char c, int count) {
+        for (int i = 0; i < count; i++) {
+            wiki.append(c);
+        }
+    }
+
+    /**
+     * Percent-encodes the characters that would end the URL of an external
+     * link early: whitespace starts the label and ']' closes the link.
+     */
+    private static String escapeHref(String href) {
+        StringBuilder escaped = new StringBuilder(href.length());
+        for (int i = 0; i < href.length(); i++) {
+            char c = href.charAt(i);
+            if (c == ' ') {
+                escaped.append("%20");
+            } else if (c == '\t') {
+                escaped.append("%09");
+            } else if (c == '\n') {
+                escaped.append("%0A");
+            } else if (c == '\r') {
+                escaped.append("%0D");
+            } else if (c == ']') {
+                escaped.append("%5D");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static boolean isHidden(String name) {
+        return name.equals("head") || name.equals("style") || name.equals("script")
+                || name.equals("title");
+    }
+
+    private static int getHeadingLevel(String name) {
+        if (name.length() == 2 && name.charAt(0) == 'h'
+                && name.charAt(1) >= '1' && name.charAt(1) <= '6') {
+            return name.charAt(1) - '0';
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the value of an attribute, or null if the tag does not have it.
+     */
+    private static String getAttribute(String attributes, String name) {
+        String lower = attributes.toLowerCase(Locale.ROOT);
+        int i = 0;
+        while ((i = lower.indexOf(name, i)) >= 0) {
+            int after = i + name.length();
+            boolean startsWord = i == 0 || Character.isWhitespace(lower.charAt(i - 1));
+            i = after;
+            while (i < lower.length() && Character.isWhitespace(lower.charAt(i))) {
+                i++;
+            }
+            if (!startsWord || i >= lower.length() || lower.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < lower.length() && Character.isWhitespace(lower.charAt(i))) {
+                i++;
+            }
+            if (i >= lower.length()) {
+                return "";
+            }
+            char quote = attributes.charAt(i);
+            if (quote == '"' || quote == '\'') {
+                int end = attributes.indexOf(quote, i + 1);
+                return attributes.substring(i + 1, end < 0 ? attributes.length() : end);
+            }
+            int end = i;
+            while (end < attributes.length() && !Character.isWhitespace(attributes.charAt(end))) {
+                end++;
+            }
+            return attributes.substring(i, end);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,206 @@
+package docs;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports how far a bulk run has got: documents done and remaining, bytes
+ * exported, recent documents and megabytes per second, failures and the time
+ * left.
+ *
+ * Workers only bump counters, which takes no lock. A timer thread reads them
+ * on a fixed tick and prints a line, so a slow console never holds up the
+ * workers. Rates are averaged over the last few ticks, so they follow the run
+ * as it speeds up or slows down rather than its whole history.
+ *
+ * A reporter may be used from several threads at once.
+ */
+public class ProgressReporter {
+    public static final long DEFAULT_TICK_MILLIS = 5000;
+
+    // The number of ticks rates are averaged over.
+    private static final int WINDOW_TICKS = 6;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    // Samples of the last ticks, oldest at next. Only start and the timer
+    // thread touch them, under the lock that workers never take.
+    private final long[] sampleNanos = new long[WINDOW_TICKS + 1];
+    private final long[] sampleDocuments = new long[WINDOW_TICKS + 1];
+    private final long[] sampleBytes = new long[WINDOW_TICKS + 1];
+    private int next;
+    private int samples;
+
+    private ScheduledExecutorService timer;
+    private PrintStream log;
+    private long startNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param total the number of documents in the run, which may grow with
+     *        {@link #addTotal} while they are still being listed.
+     */
+    public ProgressReporter(long total) {
+        this.total.set(total);
+    }
+
+    /**
+     * Starts printing a line on every tick.
+     *
+     * @param log where to print.
+     * @param tickMillis how often to print.
+     */
+    public synchronized void start(PrintStream log, long tickMillis) {
+        if (timer != null) {
+            return;
+        }
+        this.log = log;
+        startNanos = System.nanoTime();
+        sample(startNanos);
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "progress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                ProgressReporter.this.log.println(tick());
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the ticks and prints a summary of the whole run.
+     */
+    public void stop() throws InterruptedException {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = timer;
+            timer = null;
+        }
+        if (stopping == null) {
+            return;
+        }
+        // Not under the lock, which a tick in progress needs to finish.
+        stopping.shutdownNow();
+        stopping.awaitTermination(1, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        log.println("Done: " + done.get() + " of " + total.get() + " documents ("
+                + failed.get() + " failed), " + megabytes(bytes.get()) + " MB exported in "
+                + duration(Math.round(seconds)) + ", "
+                + rates(done.get() + failed.get(), bytes.get(), seconds));
+    }
+
+    /**
+     * Adds documents to the run, as they are listed.
+     */
+    public void addTotal(long count) {
+        total.addAndGet(count);
+    }
+
+    /**
+     * Counts a document done.
+     */
+    public void documentDone() {
+        done.incrementAndGet();
+    }
+
+    /**
+     * Counts a document that failed. It is not retried, so it leaves the
+     * documents remaining too.
+     */
+    public void documentFailed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Counts bytes exported from Google Docs.
+     */
+    public void addBytes(long count) {
+        bytes.addAndGet(count);
+    }
+
+    public long getDone() {
+        return done.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Samples the counters and describes them, as in
+     * "120/1000 docs (3 failed), 12.3 MB exported, 10.2 docs/s, 1.12 MB/s, ETA 1m 26s".
+     */
+    private synchronized String tick() {
+        long now = System.nanoTime();
+        sample(now);
+        int newest = (next + sampleNanos.length - 1) % sampleNanos.length;
+        int oldest = (next + sampleNanos.length - samples) % sampleNanos.length;
+        double seconds = (sampleNanos[newest] - sampleNanos[oldest]) / 1e9;
+        long documents = sampleDocuments[newest] - sampleDocuments[oldest];
+        long exported = sampleBytes[newest] - sampleBytes[oldest];
+
+        long finished = sampleDocuments[newest];
+        long remaining = Math.max(0, total.get() - finished);
+        String eta;
+        if (remaining == 0) {
+            eta = "0s";
+        } else if (documents > 0) {
+            eta = duration(Math.round(remaining * seconds / documents));
+        } else {
+            eta = "unknown";
+        }
+        return done.get() + "/" + total.get() + " docs (" + failed.get() + " failed), "
+                + megabytes(bytes.get()) + " MB exported, " + rates(documents, exported, seconds)
+                + ", ETA " + eta;
+    }
+
+    private void sample(long now) {
+        sampleNanos[next] = now;
+        sampleDocuments[next] = done.get() + failed.get();
+        sampleBytes[next] = bytes.get();
+        next = (next + 1) % sampleNanos.length;
+        samples = Math.min(samples + 1, sampleNanos.length);
+    }
+
+    private static String rates(long documents, long bytes, double seconds) {
+        if (seconds <= 0) {
+            return "0.0 docs/s, 0.00 MB/s";
+        }
+        return String.format("%.1f docs/s, %.2f MB/s", documents / seconds,
+                bytes / (1024.0 * 1024.0) / seconds);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Formats seconds as in "1h 2m 3s", leaving out leading zero units.
+     */
+    static String duration(long seconds) {
+        long hours = seconds / 3600;
+        long minutes = seconds / 60 % 60;
+        if (hours > 0) {
+            return hours + "h " + minutes + "m " + seconds % 60 + "s";
+        } else if (minutes > 0) {
+            return minutes + "m " + seconds % 60 + "s";
+        }
+        return seconds + "s";
+    }
+}
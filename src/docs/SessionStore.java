@@ -0,0 +1,197 @@
+package docs;
+
+import org.apache.http.cookie.Cookie;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps authentication state between runs so that a new process can skip the
+ * Google ClientLogin round trip and the MediaWiki login.
+ *
+ * Google auth tokens are kept in a properties file keyed by service and user.
+ * Wiki session cookies are serialized to one file per wiki and user. Files are
+ * made readable by the owner only. A missing or unreadable store simply means
+ * a fresh login.
+ */
+public class SessionStore {
+    private static final String TOKENS_FILE = "tokens.properties";
+
+    private final File directory;
+
+    /**
+     * Constructor.
+     *
+     * @param directory the directory holding the session files. It is created
+     *        on the first save.
+     */
+    public SessionStore(String directory) {
+        this.directory = new File(directory);
+    }
+
+    /**
+     * Gets the directory holding the session files, where other state kept
+     * between runs belongs too.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets a saved Google auth token.
+     *
+     * @param serviceName the GData service the token was issued for.
+     * @param user the user the token belongs to.
+     *
+     * @return the token, or null if none was saved.
+     */
+    public synchronized String getToken(String serviceName, String user) {
+        return loadTokens().getProperty(serviceName + "." + user);
+    }
+
+    /**
+     * Saves a Google auth token.
+     *
+     * @param serviceName the GData service the token was issued for.
+     * @param user the user the token belongs to.
+     * @param token the token value.
+     */
+    public synchronized void putToken(String serviceName, String user, String token) {
+        Properties tokens = loadTokens();
+        tokens.setProperty(serviceName + "." + user, token);
+
+        FileOutputStream outStream = null;
+        try {
+            outStream = new FileOutputStream(createFile(TOKENS_FILE));
+            tokens.store(outStream, "Google auth tokens");
+        } catch (IOException e) {
+            // Not being able to save the session only costs a login next time.
+        } finally {
+            closeQuietly(outStream);
+        }
+    }
+
+    /**
+     * Gets the saved session cookies for a wiki user, leaving out expired ones.
+     *
+     * @param wikiUrl the url of the wiki.
+     * @param user the wiki user name.
+     *
+     * @return the cookies, empty if none were saved.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<Cookie> loadCookies(String wikiUrl, String user) {
+        List<Cookie> cookies = new ArrayList<Cookie>();
+        File file = new File(directory, getCookieFileName(wikiUrl, user));
+        if (!file.exists()) {
+            return cookies;
+        }
+
+        ObjectInputStream inStream = null;
+        try {
+            inStream = new ObjectInputStream(new FileInputStream(file));
+            Date now = new Date();
+            for (Cookie cookie : (List<Cookie>) inStream.readObject()) {
+                if (!cookie.isExpired(now)) {
+                    cookies.add(cookie);
+                }
+            }
+        } catch (IOException e) {
+            cookies.clear();
+        } catch (ClassNotFoundException e) {
+            cookies.clear();
+        } catch (ClassCastException e) {
+            cookies.clear();
+        } finally {
+            closeQuietly(inStream);
+        }
+        return cookies;
+    }
+
+    /**
+     * Saves the session cookies of a wiki user.
+     *
+     * @param wikiUrl the url of the wiki.
+     * @param user the wiki user name.
+     * @param cookies the cookies from the logged in client.
+     */
+    public synchronized void saveCookies(String wikiUrl, String user, List<Cookie> cookies) {
+        ArrayList<Cookie> saved = new ArrayList<Cookie>();
+        for (Cookie cookie : cookies) {
+            if (cookie instanceof Serializable) {
+                saved.add(cookie);
+            }
+        }
+
+        ObjectOutputStream outStream = null;
+        try {
+            outStream = new ObjectOutputStream(
+                    new FileOutputStream(createFile(getCookieFileName(wikiUrl, user))));
+            outStream.writeObject(saved);
+        } catch (IOException e) {
+            // Not being able to save the session only costs a login next time.
+        } finally {
+            closeQuietly(outStream);
+        }
+    }
+
+    private Properties loadTokens() {
+        Properties tokens = new Properties();
+        File file = new File(directory, TOKENS_FILE);
+        if (file.exists()) {
+            FileInputStream inStream = null;
+            try {
+                inStream = new FileInputStream(file);
+                tokens.load(inStream);
+            } catch (IOException e) {
+                tokens.clear();
+            } finally {
+                closeQuietly(inStream);
+            }
+        }
+        return tokens;
+    }
+
+    private File createFile(String name) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+
+        File file = new File(directory, name);
+        if (!file.exists()) {
+            file.createNewFile();
+        }
+        try {
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; rely on the directory permissions instead.
+        }
+        return file;
+    }
+
+    private static String getCookieFileName(String wikiUrl, String user) {
+        return "wiki-" + Integer.toHexString((wikiUrl + "\n" + user).hashCode()) + ".cookies";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+}
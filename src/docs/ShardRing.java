@@ -0,0 +1,70 @@
+package docs;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Splits resource ids between a number of shards by consistent hashing. Each
+ * shard owns many points on a ring of hashes, and an id belongs to the shard
+ * of the first point at or after its own hash. Every process that builds a
+ * ring with the same shard count agrees on the owner of every id without
+ * talking to the others, and changing the shard count only moves about the
+ * share of ids the new shard takes.
+ *
+ * A ring is immutable, and may be used from several threads at once.
+ */
+public class ShardRing {
+    // Points per shard; more points even out the shares.
+    private static final int POINTS_PER_SHARD = 128;
+
+    private final int shardCount;
+    private final TreeMap<Long, Integer> points = new TreeMap<Long, Integer>();
+
+    /**
+     * Constructor.
+     *
+     * @param shardCount the number of shards, at least 1.
+     */
+    public ShardRing(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shard count must be at least 1");
+        }
+        this.shardCount = shardCount;
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int point = 0; point < POINTS_PER_SHARD; point++) {
+                points.put(hash("shard-" + shard + "#" + point), shard);
+            }
+        }
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Gets the shard that owns a resource id, from 0 to the shard count - 1.
+     */
+    public int getShard(String resourceId) {
+        Map.Entry<Long, Integer> point = points.ceilingEntry(hash(resourceId));
+        return point == null ? points.firstEntry().getValue() : point.getValue();
+    }
+
+    private static long hash(String key) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has MD5.
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = hash << 8 | (bytes[i] & 0xff);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,274 @@
+package docs;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs one shard of a migration split between several worker processes, on
+ * one machine or many.
+ *
+ * Every worker lists the same documents, and a {@link ShardRing} gives each
+ * document to one shard. A worker first migrates the documents of its own
+ * shard, claiming each in a shared {@link WorkLedger} so that no two workers
+ * migrate it at once. Then it keeps watching the documents of the other
+ * shards until all are done, and takes over those whose lease ran out or
+ * whose worker never showed up, so a crashed worker only delays its documents
+ * by the lease time. A document migrated twice, by a worker that lost its
+ * lease while still working, is only saved once, since saving the same text
+ * again is skipped.
+ *
+ * Documents that fail are recorded as done with the reason, and are not tried
+ * again in the same ledger.
+ */
+public class ShardedMigrator {
+    // How often to look for documents of other workers, at most.
+    private static final long POLL_MILLIS = 1000;
+
+    private final WikiMigrator migrator;
+    private final WorkLedger ledger;
+    private final ShardRing ring;
+    private final int shard;
+    private final int threads;
+    private PrintStream log;
+    private ProgressReporter progress;
+
+    /**
+     * Constructor.
+     *
+     * @param migrator the migrator to migrate documents with.
+     * @param ledger the ledger every worker of the run shares.
+     * @param ring the ring of the run, with one shard per worker.
+     * @param shard the shard this worker runs, from 0.
+     * @param threads the number of documents to migrate at once.
+     */
+    public ShardedMigrator(WikiMigrator migrator, WorkLedger ledger, ShardRing ring, int shard,
+                           int threads) {
+        if (shard < 0 || shard >= ring.getShardCount()) {
+            throw new IllegalArgumentException("no shard " + shard + " of "
+                    + ring.getShardCount());
+        }
+        this.migrator = migrator;
+        this.ledger = ledger;
+        this.ring = ring;
+        this.shard = shard;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets where to report documents taken over and errors, or null for
+     * nowhere.
+     */
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    /**
+     * Sets a reporter to count each document this worker claims and finishes,
+     * or null for none.
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Migrates the documents of this shard, then helps with the others until
+     * every document is done.
+     *
+     * @param entries every document of the run, from a listing feed, the same
+     *        on every worker.
+     *
+     * @return the result of each document this worker migrated.
+     *
+     * @throws IOException if the ledger cannot be read or written.
+     * @throws InterruptedException
+     */
+    public List<BulkResult<DocumentListEntry>> migrateAll(List<DocumentListEntry> entries)
+            throws IOException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        final long renewMillis = Math.max(1, ledger.getLeaseMillis() / 3);
+        ledger.renew(shard);
+        ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(
+                newThreadFactory("ledger-renew"));
+        renewer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    ledger.renew(shard);
+                } catch (IOException e) {
+                    report("renewing leases failed: " + e.getMessage());
+                }
+            }
+        }, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+                newThreadFactory("shard-" + shard));
+
+        List<BulkResult<DocumentListEntry>> results = new ArrayList<BulkResult<DocumentListEntry>>();
+        try {
+            // Documents not known to be done yet, in listing order.
+            Map<String, DocumentListEntry> remaining =
+                    new LinkedHashMap<String, DocumentListEntry>();
+            List<DocumentListEntry> own = new ArrayList<DocumentListEntry>();
+            for (DocumentListEntry entry : entries) {
+                remaining.put(entry.getResourceId(), entry);
+                if (ring.getShard(entry.getResourceId()) == shard) {
+                    own.add(entry);
+                }
+            }
+            collect(submitAll(workers, own), results);
+
+            long pollMillis = Math.min(POLL_MILLIS, renewMillis);
+            while (true) {
+                List<DocumentListEntry> takeOver = new ArrayList<DocumentListEntry>();
+                // Give late workers a lease time to show up before their
+                // unclaimed documents count as abandoned.
+                boolean grace = System.currentTimeMillis() - start < ledger.getLeaseMillis();
+                int before = remaining.size();
+                Map<String, WorkLedger.State> states = ledger.getStates();
+                Map<Integer, Boolean> alive = new HashMap<Integer, Boolean>();
+                for (DocumentListEntry entry : new ArrayList<DocumentListEntry>(
+                        remaining.values())) {
+                    String resourceId = entry.getResourceId();
+                    WorkLedger.State state = states.get(resourceId);
+                    if (state == null) {
+                        state = WorkLedger.State.UNCLAIMED;
+                    }
+                    if (state == WorkLedger.State.DONE) {
+                        remaining.remove(resourceId);
+                    } else if (state == WorkLedger.State.EXPIRED) {
+                        takeOver.add(entry);
+                    } else if (state == WorkLedger.State.UNCLAIMED && !grace) {
+                        int owner = ring.getShard(resourceId);
+                        if (!alive.containsKey(owner)) {
+                            alive.put(owner, ledger.isAlive(owner));
+                        }
+                        if (!alive.get(owner)) {
+                            takeOver.add(entry);
+                        }
+                    }
+                }
+                if (remaining.isEmpty()) {
+                    break;
+                }
+                if (takeOver.isEmpty()) {
+                    // Look less often while the other workers make no
+                    // progress, but at least as often as leases are renewed.
+                    pollMillis = remaining.size() < before ? Math.min(POLL_MILLIS, renewMillis)
+                            : Math.min(pollMillis * 2, renewMillis);
+                    Thread.sleep(pollMillis);
+                } else {
+                    report("shard " + shard + ": taking over " + takeOver.size()
+                            + " documents of other workers");
+                    collect(submitAll(workers, takeOver), results);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            renewer.shutdownNow();
+        }
+        return results;
+    }
+
+    private List<Future<BulkResult<DocumentListEntry>>> submitAll(ExecutorService workers,
+            List<DocumentListEntry> entries) {
+        List<Future<BulkResult<DocumentListEntry>>> futures =
+                new ArrayList<Future<BulkResult<DocumentListEntry>>>();
+        for (final DocumentListEntry entry : entries) {
+            futures.add(workers.submit(new Callable<BulkResult<DocumentListEntry>>() {
+                public BulkResult<DocumentListEntry> call() throws IOException {
+                    return migrate(entry);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * Waits for documents, and adds the results of those this worker claimed.
+     */
+    private void collect(List<Future<BulkResult<DocumentListEntry>>> futures,
+                         List<BulkResult<DocumentListEntry>> results)
+            throws IOException, InterruptedException {
+        for (Future<BulkResult<DocumentListEntry>> future : futures) {
+            try {
+                BulkResult<DocumentListEntry> result = future.get();
+                if (result != null) {
+                    results.add(result);
+                }
+            } catch (ExecutionException e) {
+                // Only the ledger throws; without it the run cannot go on.
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Migrates a document if this worker can claim it.
+     *
+     * @return the result, or null if another worker has it.
+     */
+    private BulkResult<DocumentListEntry> migrate(DocumentListEntry entry) throws IOException {
+        WorkLedger.Claim claim = ledger.claim(entry.getResourceId());
+        if (claim == null) {
+            return null;
+        }
+        if (progress != null) {
+            progress.addTotal(1);
+        }
+        String failure = null;
+        try {
+            migrator.migrate(entry, null);
+        } catch (Exception e) {
+            failure = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            // Stopped rather than failed; another worker may take it.
+            ledger.release(claim);
+            return null;
+        }
+        ledger.complete(claim, failure);
+        if (progress != null) {
+            if (failure == null) {
+                progress.documentDone();
+            } else {
+                progress.documentFailed();
+            }
+        }
+        if (failure != null) {
+            report("failed " + entry.getResourceId() + ": " + failure);
+        }
+        return new BulkResult<DocumentListEntry>(entry, failure == null, 0, failure);
+    }
+
+    private void report(String message) {
+        if (log != null) {
+            log.println(message);
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,281 @@
+package docs;
+
+import com.google.gdata.data.docs.ChangelogEntry;
+import com.google.gdata.data.docs.ChangelogFeed;
+import com.google.gdata.util.ServiceException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps the wiki in step with Google Docs by polling the changes feed and
+ * republishing the documents that changed.
+ *
+ * The changestamp reached is saved after every poll, so a restarted daemon
+ * picks up where the last one stopped instead of rescanning the account. A
+ * document edited several times within the debounce window is published once,
+ * after the edits settle.
+ */
+public class SyncDaemon implements Runnable {
+    private static final String CHANGESTAMP_KEY = "changestamp";
+
+    private final DocumentList documentList;
+    private final WikiMigrator migrator;
+    private final File stateFile;
+    private final long pollMillis;
+    private final long debounceMillis;
+    private PrintStream log;
+
+    // Documents waiting for their debounce window to pass, in the order they
+    // first changed.
+    private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    private long nextChangestamp = -1;
+    private volatile boolean stopped;
+    private int publishedCount;
+    private int failedCount;
+
+    /**
+     * A document with unpublished changes.
+     */
+    private static class Pending {
+        final long firstChangestamp;
+        ChangelogEntry entry;
+        long dueMillis;
+
+        Pending(long firstChangestamp) {
+            this.firstChangestamp = firstChangestamp;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param documentList the logged in document list to watch.
+     * @param migrator the migrator to republish changed documents with.
+     * @param stateFile where the changestamp reached is kept between runs.
+     * @param pollMillis how long to wait between polls of the changes feed.
+     * @param debounceMillis how long a document must go unchanged before it is
+     *        published.
+     */
+    public SyncDaemon(DocumentList documentList, WikiMigrator migrator, File stateFile,
+                      long pollMillis, long debounceMillis) {
+        this.documentList = documentList;
+        this.migrator = migrator;
+        this.stateFile = stateFile;
+        this.pollMillis = pollMillis;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Sets where to report published documents and errors, or null for
+     * nowhere.
+     */
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    /**
+     * Polls and publishes until {@link #stop()} is called.
+     */
+    public void run() {
+        while (!stopped) {
+            try {
+                syncOnce();
+            } catch (Exception e) {
+                report("Sync failed, retrying: " + e.getMessage());
+            }
+            synchronized (this) {
+                try {
+                    if (!stopped) {
+                        wait(pollMillis);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops {@link #run()} after the current poll.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Polls the changes feed once and publishes the documents whose debounce
+     * window has passed.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public void syncOnce() throws IOException, ServiceException, DocumentListException {
+        if (nextChangestamp < 0) {
+            nextChangestamp = loadChangestamp();
+            if (nextChangestamp < 0) {
+                // A first run starts from now; the existing corpus is migrated
+                // in bulk, not through the changes feed.
+                nextChangestamp = documentList.getLargestChangestamp() + 1;
+                saveChangestamp(nextChangestamp);
+            }
+        }
+
+        poll();
+        publishDue();
+        saveChangestamp(getSafeChangestamp());
+    }
+
+    public int getPublishedCount() {
+        return publishedCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void poll() throws IOException, ServiceException, DocumentListException {
+        long now = System.currentTimeMillis();
+        ChangelogFeed feed = documentList.getChangesFeed(nextChangestamp);
+        while (feed != null) {
+            for (ChangelogEntry entry : feed.getEntries()) {
+                Long changestamp = entry.getChangestamp() == null ? null
+                        : entry.getChangestamp().getValue();
+                if (changestamp == null) {
+                    continue;
+                }
+                nextChangestamp = Math.max(nextChangestamp, changestamp + 1);
+                String resourceId = entry.getResourceId();
+                if (resourceId == null || !resourceId.startsWith("document:")) {
+                    continue;
+                }
+                if (entry.hasRemoved() || entry.isTrashed()) {
+                    // Drop an earlier edit still waiting, so the content from
+                    // before the removal is not published.
+                    pending.remove(resourceId);
+                    continue;
+                }
+
+                Pending doc = pending.get(resourceId);
+                if (doc == null) {
+                    doc = new Pending(changestamp);
+                    pending.put(resourceId, doc);
+                }
+                doc.entry = entry;
+                doc.dueMillis = now + debounceMillis;
+            }
+            feed = documentList.getNextFeed(feed);
+        }
+    }
+
+    private void publishDue() {
+        long now = System.currentTimeMillis();
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext() && !stopped) {
+            Pending doc = it.next();
+            if (doc.dueMillis > now) {
+                continue;
+            }
+            try {
+                String title = migrator.migrate(doc.entry, null);
+                it.remove();
+                publishedCount++;
+                report(" -- " + title);
+            } catch (Exception e) {
+                // Try again after another window rather than holding up the rest.
+                doc.dueMillis = now + Math.max(pollMillis, debounceMillis);
+                failedCount++;
+                report("Failed to publish " + doc.entry.getResourceId() + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the changestamp a restart must resume from so that no pending
+     * document is lost.
+     */
+    private long getSafeChangestamp() {
+        long safe = nextChangestamp;
+        for (Pending doc : pending.values()) {
+            safe = Math.min(safe, doc.firstChangestamp);
+        }
+        return safe;
+    }
+
+    private long loadChangestamp() {
+        if (!stateFile.exists()) {
+            return -1;
+        }
+        Properties state = new Properties();
+        InputStream inStream = null;
+        try {
+            inStream = new FileInputStream(stateFile);
+            state.load(inStream);
+            return Long.parseLong(state.getProperty(CHANGESTAMP_KEY, "-1"));
+        } catch (IOException e) {
+            return -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        } finally {
+            closeQuietly(inStream);
+        }
+    }
+
+    private void saveChangestamp(long changestamp) throws IOException {
+        Properties state = new Properties();
+        state.setProperty(CHANGESTAMP_KEY, Long.toString(changestamp));
+
+        File parent = stateFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        // Write a new file and rename it over the old one, so a crash never
+        // leaves a half written changestamp.
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        OutputStream outStream = new FileOutputStream(tmp);
+        try {
+            state.store(outStream, "Google Docs to wiki sync");
+        } finally {
+            outStream.close();
+        }
+        if (!tmp.renameTo(stateFile)) {
+            stateFile.delete();
+            if (!tmp.renameTo(stateFile)) {
+                throw new IOException("cannot write " + stateFile);
+            }
+        }
+    }
+
+    private void report(String message) {
+        if (log != null) {
+            log.println(message);
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+}
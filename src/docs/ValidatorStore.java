@@ -0,0 +1,85 @@
+package docs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last copy of entries and feeds fetched by URL, with their etags,
+ * so that repeat requests can be sent with If-None-Match and a 304 Not
+ * Modified answered from the stored copy.
+ *
+ * The least recently used copies are dropped once the store is full. Stored
+ * copies are shared between callers and must not be modified.
+ */
+public class ValidatorStore {
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final Map<String, Object> copies;
+    private long notModifiedCount;
+    private long fetchCount;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries the most copies kept at once.
+     */
+    public ValidatorStore(final int maxEntries) {
+        copies = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the stored copy for a URL.
+     *
+     * @param url the URL the copy was fetched from.
+     * @param type the type of the copy.
+     *
+     * @return the copy, or null if there is none of that type.
+     */
+    public synchronized <T> T get(String url, Class<T> type) {
+        Object copy = copies.get(url);
+        return type.isInstance(copy) ? type.cast(copy) : null;
+    }
+
+    /**
+     * Stores the copy fetched from a URL, replacing any older one.
+     */
+    public synchronized void put(String url, Object copy) {
+        fetchCount++;
+        copies.put(url, copy);
+    }
+
+    /**
+     * Drops the stored copy for a URL, after the object behind it changed.
+     */
+    public synchronized void remove(String url) {
+        copies.remove(url);
+    }
+
+    /**
+     * Records that a stored copy was revalidated by a 304.
+     */
+    synchronized void recordNotModified() {
+        notModifiedCount++;
+    }
+
+    /**
+     * Gets the number of requests answered from a stored copy.
+     */
+    public synchronized long getNotModifiedCount() {
+        return notModifiedCount;
+    }
+
+    /**
+     * Gets the number of requests that fetched a full copy.
+     */
+    public synchronized long getFetchCount() {
+        return fetchCount;
+    }
+}
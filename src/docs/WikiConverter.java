@@ -0,0 +1,22 @@
+package docs;
+
+/**
+ * Converts exported HTML to wiki markup.
+ *
+ * A converter keeps its rule tables and scratch buffers between documents, so
+ * it is reused rather than created per document, but by one thread at a time.
+ * Get converters from a {@link WikiConverterPool}, which keeps one per thread.
+ *
+ * Other converters can be plugged in by class name; they need a public
+ * constructor without arguments.
+ */
+public interface WikiConverter {
+    /**
+     * Converts a document.
+     *
+     * @param html the exported HTML of the document.
+     *
+     * @return the wiki markup of the document.
+     */
+    String toWiki(String html);
+}
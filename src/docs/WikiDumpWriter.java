@@ -0,0 +1,281 @@
+package docs;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Streams converted pages into a MediaWiki XML export file that can be loaded
+ * with importDump.php or Special:Import.
+ *
+ * Page text is written straight through to disk as it is produced, so memory
+ * use does not grow with the size of the corpus. Only the page titles listed on
+ * each category page are kept until {@link #close()}, when the category pages
+ * and the root index page are appended. When a part size is given, the output
+ * is split into numbered files each holding complete pages.
+ */
+public class WikiDumpWriter implements Closeable {
+    private static final String EXPORT_NAMESPACE = "http://www.mediawiki.org/xml/export-0.10/";
+    private static final String EXPORT_VERSION = "0.10";
+    private static final String CONTRIBUTOR = "GoogleDocMigration";
+
+    private final String path;
+    private final long maxPartBytes;
+    private final String rootTitle;
+    private final String timestamp;
+
+    private final Map<String, Set<String>> categories = new LinkedHashMap<String, Set<String>>();
+    private final List<String> partPaths = new ArrayList<String>();
+
+    private final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+    private CountingOutputStream partStream;
+    private XMLStreamWriter writer;
+    private int pageCount;
+
+    /**
+     * Constructor.
+     *
+     * @param path the file to write the dump to. When the dump is split, the part
+     *        number is inserted before the extension.
+     * @param maxPartBytes the size at which a new part file is started, or 0 to
+     *        write a single file.
+     * @param rootTitle the title of the index page that links every category.
+     *
+     * @throws IOException
+     */
+    public WikiDumpWriter(String path, long maxPartBytes, String rootTitle) throws IOException {
+        this.path = path;
+        this.maxPartBytes = maxPartBytes;
+        this.rootTitle = rootTitle;
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        timestamp = format.format(new Date());
+
+        openPart();
+    }
+
+    /**
+     * Writes one content page to the dump and lists it under a category.
+     *
+     * @param title the title of the wiki page.
+     * @param category the category page the title is listed on.
+     * @param text the wiki markup of the page.
+     *
+     * @throws IOException
+     */
+    public synchronized void writePage(String title, String category, String text)
+            throws IOException {
+        writeRawPage(title, text);
+        listPage(title, category);
+    }
+
+    /**
+     * Lists a page that is already in the dump under another category too.
+     *
+     * @param title the title of the wiki page.
+     * @param category the category page the title is listed on.
+     */
+    public synchronized void listPage(String title, String category) {
+        Set<String> titles = categories.get(category);
+        if (titles == null) {
+            titles = new LinkedHashSet<String>();
+            categories.put(category, titles);
+        }
+        titles.add(title);
+    }
+
+    /**
+     * Gets the number of pages written so far, including category pages.
+     */
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Gets the paths of all the part files written so far.
+     */
+    public synchronized List<String> getPartPaths() {
+        return new ArrayList<String>(partPaths);
+    }
+
+    /**
+     * Appends the category pages and the root index, then closes the dump.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+
+        StringBuffer index = new StringBuffer();
+        for (Map.Entry<String, Set<String>> category : categories.entrySet()) {
+            StringBuffer text = new StringBuffer();
+            for (String title : category.getValue()) {
+                text.append("\n*[[" + title + "]]");
+            }
+            writeRawPage(category.getKey(), text.toString());
+            index.append("\n*[[" + category.getKey() + "]]");
+        }
+        writeRawPage(rootTitle, index.toString());
+
+        closePart();
+    }
+
+    /**
+     * Closes a dump that could not be finished, without the category pages
+     * and the root index. The pages written so far can still be loaded.
+     *
+     * @throws IOException
+     */
+    public synchronized void abort() throws IOException {
+        if (writer != null) {
+            closePart();
+        }
+    }
+
+    /**
+     * Tells whether the dump is still open, that is neither closed nor
+     * aborted.
+     */
+    public synchronized boolean isOpen() {
+        return writer != null;
+    }
+
+    private void writeRawPage(String title, String text) throws IOException {
+        if (writer == null) {
+            throw new IOException("dump already closed");
+        }
+
+        if (maxPartBytes > 0 && partStream.getCount() >= maxPartBytes) {
+            closePart();
+            openPart();
+        }
+
+        try {
+            writer.writeCharacters("\n  ");
+            writer.writeStartElement("page");
+            writeElement("    ", "title", title);
+            writeElement("    ", "ns", "0");
+            writer.writeCharacters("\n    ");
+            writer.writeStartElement("revision");
+            writeElement("      ", "timestamp", timestamp);
+            writer.writeCharacters("\n      ");
+            writer.writeStartElement("contributor");
+            writeElement("        ", "username", CONTRIBUTOR);
+            writer.writeCharacters("\n      ");
+            writer.writeEndElement();
+            writeElement("      ", "model", "wikitext");
+            writeElement("      ", "format", "text/x-wiki");
+            writer.writeCharacters("\n      ");
+            writer.writeStartElement("text");
+            writer.writeAttribute("xml", "http://www.w3.org/XML/1998/namespace", "space",
+                    "preserve");
+            writer.writeCharacters(text);
+            writer.writeEndElement();
+            writer.writeCharacters("\n    ");
+            writer.writeEndElement();
+            writer.writeCharacters("\n  ");
+            writer.writeEndElement();
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("could not write page " + title, e);
+        }
+        pageCount++;
+    }
+
+    private void writeElement(String indent, String name, String value)
+            throws XMLStreamException {
+        writer.writeCharacters("\n" + indent);
+        writer.writeStartElement(name);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
+
+    private void openPart() throws IOException {
+        String partPath = path;
+        if (maxPartBytes > 0) {
+            int dot = path.lastIndexOf('.');
+            int slash = path.lastIndexOf('/');
+            String number = String.format("%04d", partPaths.size() + 1);
+            if (dot > slash) {
+                partPath = path.substring(0, dot) + "-" + number + path.substring(dot);
+            } else {
+                partPath = path + "-" + number;
+            }
+        }
+
+        partStream = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partPath)));
+        try {
+            writer = factory.createXMLStreamWriter(partStream, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("mediawiki");
+            writer.writeDefaultNamespace(EXPORT_NAMESPACE);
+            writer.writeAttribute("version", EXPORT_VERSION);
+            writer.writeAttribute("xml", "http://www.w3.org/XML/1998/namespace", "lang", "en");
+        } catch (XMLStreamException e) {
+            partStream.close();
+            throw new IOException("could not start dump " + partPath, e);
+        }
+        partPaths.add(partPath);
+    }
+
+    private void closePart() throws IOException {
+        try {
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("could not finish dump", e);
+        } finally {
+            writer = null;
+            partStream.close();
+        }
+    }
+
+    /**
+     * Counts the bytes written to the current part so it can be capped.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package docs;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the documents of a migration to their wiki page titles, so that links
+ * between them can point at the wiki instead of back at Google Docs.
+ *
+ * Build the index from the whole set of documents first, then hand it to
+ * {@link WikiMigrator#setLinkIndex}. Every link is resolved from memory, with
+ * no request per link. The index may be read from several threads at once
+ * once it is built.
+ */
+public class WikiLinkIndex {
+    private static final Pattern ANCHOR = Pattern.compile(
+            "<a\\b[^>]*?\\bhref\\s*=\\s*([\"'])(.*?)\\1[^>]*>(.*?)</a\\s*>",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    // Google Docs links name the document in the path, as in
+    // /document/d/<key>/edit, or in a query parameter of older links.
+    private static final Pattern PATH_KEY = Pattern.compile("/d/([\\w-]+)");
+    private static final Pattern QUERY_KEY = Pattern.compile("[?&](?:id|docid|key)=([\\w-]+)");
+    // Exported documents wrap their links in a redirect through google.com/url.
+    private static final Pattern REDIRECT = Pattern.compile("google\\.com/url\\?(?:.*&)?q=([^&]*)");
+
+    private final Map<String, String> titles = new HashMap<String, String>();
+
+    /**
+     * Builds an index of documents.
+     *
+     * @param documentList the document list to parse resource ids with.
+     * @param entries the documents being migrated.
+     *
+     * @throws DocumentListException if an entry has a malformed resource id.
+     */
+    public static WikiLinkIndex build(DocumentList documentList, List<DocumentListEntry> entries)
+            throws DocumentListException {
+        WikiLinkIndex index = new WikiLinkIndex();
+        for (DocumentListEntry entry : entries) {
+            index.add(documentList.getResourceIdSuffix(entry.getResourceId()),
+                    entry.getTitle().getPlainText());
+        }
+        return index;
+    }
+
+    /**
+     * Adds a document.
+     *
+     * @param key the document key, which is the suffix of its resource id.
+     * @param title the title of its wiki page.
+     */
+    public void add(String key, String title) {
+        titles.put(key, title);
+    }
+
+    /**
+     * Gets the wiki page title of a document, or null if it is not indexed.
+     *
+     * @param key the document key.
+     */
+    public String getTitle(String key) {
+        return titles.get(key);
+    }
+
+    /**
+     * Gets the number of documents indexed.
+     */
+    public int size() {
+        return titles.size();
+    }
+
+    /**
+     * Replaces links to indexed documents in exported HTML with wiki links to
+     * their pages. The text of a link is kept as the label. Other links are
+     * left alone.
+     *
+     * @param html the exported HTML of a document.
+     */
+    public String rewriteLinks(String html) {
+        Matcher anchor = ANCHOR.matcher(html);
+        StringBuffer rewritten = null;
+        while (anchor.find()) {
+            String title = getTitle(getKey(anchor.group(2)));
+            if (title == null) {
+                continue;
+            }
+            if (rewritten == null) {
+                rewritten = new StringBuffer(html.length());
+            }
+            // The converter passes text through, so the wiki link survives it.
+            anchor.appendReplacement(rewritten, Matcher.quoteReplacement(
+                    "[[" + escape(title) + "|" + anchor.group(3) + "]]"));
+        }
+        if (rewritten == null) {
+            return html;
+        }
+        anchor.appendTail(rewritten);
+        return rewritten.toString();
+    }
+
+    /**
+     * Gets the document key a Google Docs link points at, or null if it does
+     * not point at a document.
+     */
+    private static String getKey(String href) {
+        href = href.replace("&amp;", "&");
+        Matcher redirect = REDIRECT.matcher(href);
+        if (redirect.find()) {
+            try {
+                href = URLDecoder.decode(redirect.group(1), "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        if (!href.contains("docs.google.com") && !href.contains("drive.google.com")) {
+            return null;
+        }
+        Matcher key = PATH_KEY.matcher(href);
+        if (key.find()) {
+            return key.group(1);
+        }
+        key = QUERY_KEY.matcher(href);
+        return key.find() ? key.group(1) : null;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,528 @@
+package docs;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+import com.google.gdata.util.ServiceException;
+import net.sourceforge.jwbf.core.contentRep.Article;
+import net.sourceforge.jwbf.mediawiki.bots.MediaWikiBot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Migrates documents to the wiki: exports each one as HTML, converts it to
+ * wiki markup, saves it as a page and links it from its category page and the
+ * root index.
+ *
+ * A migrator may be used from several threads at once.
+ */
+public class WikiMigrator {
+    public static final String DEFAULT_CATEGORY = "Default";
+
+    private static final int SUBPAGE_SAVE_THREADS = 4;
+
+    private final DocumentList documentList;
+    private final MediaWikiBot bot;
+    private final WikiPageAppender pageAppender;
+    private final String rootTitle;
+    private final AtomicInteger savedCount = new AtomicInteger();
+    private final AtomicInteger unchangedCount = new AtomicInteger();
+
+    // Pages longer than this are split at their top-level headings, if it is
+    // above 0.
+    private volatile int splitThreshold;
+    // Created on the first split page, and shared with every migrator made
+    // from this one.
+    private final AtomicReference<ExecutorService> subpageExecutor;
+    private volatile WikiLinkIndex linkIndex;
+    private volatile WikiConverterPool converters = new WikiConverterPool();
+    private volatile ProgressReporter progress;
+    private volatile ContentDeduplicator deduplicator;
+
+    /**
+     * Constructor.
+     *
+     * @param documentList the logged in document list to export from, or null
+     *        if the migrator only serves as the wiki of other migrators.
+     * @param bot the logged in bot to save pages with, or null if the migrator
+     *        is only used to export documents.
+     * @param rootTitle the title of the index page that links every category.
+     */
+    public WikiMigrator(DocumentList documentList, MediaWikiBot bot, String rootTitle) {
+        this.documentList = documentList;
+        this.bot = bot;
+        this.rootTitle = rootTitle;
+        pageAppender = bot == null ? null : new WikiPageAppender(bot);
+        subpageExecutor = new AtomicReference<ExecutorService>();
+    }
+
+    /**
+     * Constructor for a migrator that exports from another document list but
+     * publishes to the same wiki as an existing migrator. The two share their
+     * index page locks, so they may publish at the same time, and the threads
+     * that save subpages.
+     *
+     * @param documentList the logged in document list to export from.
+     * @param wiki the migrator whose wiki, root index, split threshold and
+     *        converters to use.
+     */
+    public WikiMigrator(DocumentList documentList, WikiMigrator wiki) {
+        this.documentList = documentList;
+        this.bot = wiki.bot;
+        this.rootTitle = wiki.rootTitle;
+        this.pageAppender = wiki.pageAppender;
+        this.subpageExecutor = wiki.subpageExecutor;
+        this.splitThreshold = wiki.splitThreshold;
+        this.linkIndex = wiki.linkIndex;
+        this.converters = wiki.converters;
+        this.progress = wiki.progress;
+        this.deduplicator = wiki.deduplicator;
+    }
+
+    /**
+     * Sets the converters documents are converted with. Migrators made from
+     * this one after the call share them, and so their throughput counts.
+     *
+     * @param converters the converters, one per migrating thread.
+     */
+    public void setConverters(WikiConverterPool converters) {
+        this.converters = converters;
+    }
+
+    public WikiConverterPool getConverters() {
+        return converters;
+    }
+
+    /**
+     * Sets the reporter that counts the bytes of every export. Migrators made
+     * from this one after the call count into it too.
+     *
+     * @param progress the reporter, or null to count nothing.
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Sets the deduplicator that finds copies of documents already migrated.
+     * Copies then become redirects to the page of the first document, which
+     * saves converting and saving them. Migrators made from this one after the
+     * call share it.
+     *
+     * @param deduplicator the deduplicator, or null to migrate every copy.
+     */
+    public void setDeduplicator(ContentDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    public ContentDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    /**
+     * Sets the index of the documents being migrated. Links between them are
+     * then converted to links between their wiki pages.
+     *
+     * @param linkIndex the index, or null to keep links to Google Docs.
+     */
+    public void setLinkIndex(WikiLinkIndex linkIndex) {
+        this.linkIndex = linkIndex;
+    }
+
+    /**
+     * Migrates a document.
+     *
+     * @param resourceId the resource id of the document.
+     * @param category the category to list the page under, or null for the
+     *        title of the document's folder.
+     *
+     * @return the title of the wiki page.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public String migrate(String resourceId, String category) throws IOException,
+            ServiceException, DocumentListException {
+        return migrate(documentList.getDocsListEntry(resourceId), category);
+    }
+
+    /**
+     * Migrates a document whose entry is already known, for example from a
+     * listing feed.
+     *
+     * @param entry the entry of the document.
+     * @param category the category to list the page under, or null for the
+     *        title of the document's folder.
+     *
+     * @return the title of the wiki page.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public String migrate(DocumentListEntry entry, String category) throws IOException,
+            ServiceException, DocumentListException {
+        String title = entry.getTitle().getPlainText();
+        if (category == null) {
+            category = getCategory(entry);
+        }
+        ContentDeduplicator dedup = deduplicator;
+        String resourceId = entry.getResourceId();
+        if (dedup == null) {
+            publish(resourceId, title, category, toWiki(resourceId, exportHtml(resourceId)));
+            return title;
+        }
+
+        String html = exportHtml(resourceId);
+        String hash = ContentDeduplicator.hash(html);
+        String original;
+        try {
+            original = dedup.claim(hash, title);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DocumentListException("interrupted", e);
+        }
+        if (original != null) {
+            if (original.equals(title)) {
+                // A copy under the same title only needs listing under its
+                // own category too.
+                publishLinks(title, category);
+            } else {
+                publish(resourceId, title, category, ContentDeduplicator.getRedirect(original));
+            }
+            return title;
+        }
+        boolean published = false;
+        try {
+            publish(resourceId, title, category, toWiki(resourceId, html));
+            published = true;
+        } finally {
+            if (published) {
+                dedup.published(hash);
+            } else {
+                dedup.failed(hash);
+            }
+        }
+        return title;
+    }
+
+    /**
+     * Saves converted content as a wiki page and links it from its category
+     * page and the root index. The content replaces whatever the page held, and
+     * the save is skipped if the page already holds the same text.
+     *
+     * @param title the title of the wiki page.
+     * @param category the category to list the page under.
+     * @param content the wiki markup of the page.
+     *
+     * @return true if the page was saved, false if it was already up to date.
+     *
+     * @throws DocumentListException
+     */
+    public boolean publish(String title, String category, String content)
+            throws DocumentListException {
+        return publish(null, title, category, content);
+    }
+
+    /**
+     * Publishes the page of a document, noting the document in the flight
+     * recorder events of its wiki calls.
+     */
+    private boolean publish(String resourceId, String title, String category, String content)
+            throws DocumentListException {
+        if (bot == null) {
+            throw new DocumentListException("no wiki to migrate to");
+        }
+
+        boolean changed;
+        if (splitThreshold > 0 && content.length() > splitThreshold) {
+            changed = publishSplit(resourceId, title, content);
+        } else {
+            changed = savePage(resourceId, title, content);
+        }
+        // Link the page only once it exists, so the index never points at a
+        // missing page.
+        publishLinks(title, category);
+        return changed;
+    }
+
+    private void publishLinks(String title, String category) throws DocumentListException {
+        if (bot == null) {
+            throw new DocumentListException("no wiki to migrate to");
+        }
+        pageAppender.addLink(category, title);
+        pageAppender.addLink(rootTitle, category);
+    }
+
+    /**
+     * Splits pages longer than a threshold into one subpage per top-level
+     * section, under a parent page listing them. Sections still longer than
+     * the threshold are split again, so no subpage is longer. The subpages
+     * are saved concurrently.
+     *
+     * @param maxPageChars the length above which a page is split, or 0 to
+     *        never split.
+     */
+    public void setSplitThreshold(int maxPageChars) {
+        splitThreshold = maxPageChars;
+    }
+
+    /**
+     * Saves the sections of a page as subpages, then the page itself as their
+     * table of contents.
+     */
+    private boolean publishSplit(final String resourceId, String title, String content)
+            throws DocumentListException {
+        WikiPageSplitter splitter = new WikiPageSplitter(title, content, splitThreshold);
+        if (splitter.getSections().isEmpty()) {
+            return savePage(resourceId, title, content);
+        }
+
+        int depth = 0;
+        for (WikiPageSplitter.Section section : splitter.getSections()) {
+            depth = Math.max(depth, section.getDepth());
+        }
+        boolean changed = false;
+        // The deepest subpages go first, so that no contents page ever links
+        // a missing subpage.
+        for (; depth > 0; depth--) {
+            List<Future<Boolean>> saves = new ArrayList<Future<Boolean>>();
+            for (final WikiPageSplitter.Section section : splitter.getSections()) {
+                if (section.getDepth() != depth) {
+                    continue;
+                }
+                saves.add(getSubpageExecutor().submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return savePage(resourceId, section.getTitle(), section.getText());
+                    }
+                }));
+            }
+            try {
+                for (Future<Boolean> save : saves) {
+                    changed |= save.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DocumentListException("interrupted", e);
+            } catch (ExecutionException e) {
+                throw new DocumentListException("saving a subpage of " + title + " failed",
+                        e.getCause());
+            }
+        }
+        return savePage(resourceId, title, splitter.getContentsPage()) || changed;
+    }
+
+    /**
+     * Replaces the text of a page, unless it already holds the same text.
+     * Subpages the page listed before but no longer does, after a document
+     * is split differently or not at all, become redirects to the page.
+     *
+     * @return true if the page was saved.
+     */
+    private boolean savePage(String resourceId, String title, String content) {
+        return savePage(resourceId, title, content, title);
+    }
+
+    /**
+     * Replaces the text of a page, redirecting the subpages it no longer
+     * lists to another page.
+     */
+    private boolean savePage(String resourceId, String title, String content,
+                             String redirectTo) {
+        FlightEvents.WikiGet get = new FlightEvents.WikiGet();
+        get.begin();
+        Article a = null;
+        try {
+            a = bot.getArticle(title);
+        } finally {
+            get.finish(resourceId, title, a == null || a.getText() == null ? 0
+                    : a.getText().length(), a == null ? FlightEvents.FAILED : FlightEvents.OK);
+        }
+        String old = a.getText();
+        if (normalize(old).equals(normalize(content))) {
+            unchangedCount.incrementAndGet();
+            return false;
+        }
+        a.setText(content);
+        FlightEvents.WikiSave save = new FlightEvents.WikiSave();
+        save.begin();
+        String outcome = FlightEvents.FAILED;
+        try {
+            a.save();
+            outcome = FlightEvents.OK;
+        } finally {
+            save.finish(resourceId, title, content.length(), outcome);
+        }
+        savedCount.incrementAndGet();
+
+        Set<String> dropped = WikiPageSplitter.getSubpageTitles(title, old);
+        dropped.removeAll(WikiPageSplitter.getSubpageTitles(title, content));
+        for (String subpage : dropped) {
+            // Straight to the final page, as MediaWiki does not follow a
+            // redirect to a redirect.
+            savePage(resourceId, subpage, ContentDeduplicator.getRedirect(redirectTo),
+                    redirectTo);
+        }
+        return true;
+    }
+
+    private ExecutorService getSubpageExecutor() {
+        synchronized (subpageExecutor) {
+            if (subpageExecutor.get() == null) {
+                subpageExecutor.set(Executors.newFixedThreadPool(SUBPAGE_SAVE_THREADS,
+                        new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "subpage-save");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        }));
+            }
+            return subpageExecutor.get();
+        }
+    }
+
+    /**
+     * Gets the number of pages saved by {@link #publish}.
+     */
+    public int getSavedCount() {
+        return savedCount.get();
+    }
+
+    /**
+     * Gets the number of pages {@link #publish} left alone because they were
+     * already up to date.
+     */
+    public int getUnchangedCount() {
+        return unchangedCount.get();
+    }
+
+    /**
+     * Normalizes wiki text the way MediaWiki does on save: line endings are
+     * unified and trailing whitespace is dropped, from each line and from the
+     * end of the text.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (String line : text.replace("\r\n", "\n").replace('\r', '\n').split("\n", -1)) {
+            int end = line.length();
+            while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+                end--;
+            }
+            normalized.append(line, 0, end).append('\n');
+        }
+        int end = normalized.length();
+        while (end > 0 && normalized.charAt(end - 1) == '\n') {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString();
+    }
+
+    /**
+     * Downloads a document as HTML and converts it to wiki markup. Links to
+     * documents in the link index become links to their wiki pages.
+     *
+     * @param resourceId the resource id of the document to convert.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public String exportToWiki(String resourceId) throws IOException, ServiceException,
+            DocumentListException {
+        return toWiki(resourceId, exportHtml(resourceId));
+    }
+
+    /**
+     * Downloads a document as HTML.
+     *
+     * @param resourceId the resource id of the document to export.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     * @throws DocumentListException
+     */
+    public String exportHtml(String resourceId) throws IOException, ServiceException,
+            DocumentListException {
+        FlightEvents.Export event = new FlightEvents.Export();
+        event.begin();
+        ExportBuffer export = null;
+        try {
+            export = documentList.downloadDocument(resourceId, "html");
+        } finally {
+            event.finish(resourceId, export == null ? 0 : export.size(),
+                    export == null ? FlightEvents.FAILED : FlightEvents.OK);
+        }
+        try {
+            ProgressReporter reporter = progress;
+            if (reporter != null) {
+                reporter.addBytes(export.size());
+            }
+            return export.decode(StandardCharsets.UTF_8);
+        } finally {
+            export.close();
+        }
+    }
+
+    /**
+     * Converts exported HTML to wiki markup. Links to documents in the link
+     * index become links to their wiki pages.
+     *
+     * @param html the exported HTML of a document.
+     */
+    public String toWiki(String html) {
+        return toWiki(null, html);
+    }
+
+    /**
+     * Converts the exported HTML of a document to wiki markup, noting the
+     * document in the flight recorder event of the conversion.
+     *
+     * @param resourceId the resource id of the document, or null.
+     * @param html the exported HTML of the document.
+     */
+    public String toWiki(String resourceId, String html) {
+        FlightEvents.Conversion event = new FlightEvents.Conversion();
+        event.begin();
+        String outcome = FlightEvents.FAILED;
+        try {
+            WikiLinkIndex index = linkIndex;
+            if (index != null) {
+                html = index.rewriteLinks(html);
+            }
+            String wiki = converters.toWiki(html);
+            outcome = FlightEvents.OK;
+            return wiki;
+        } finally {
+            event.finish(resourceId, html.length(), outcome);
+        }
+    }
+
+    /**
+     * Gets the category a document is migrated under, which is the title of its
+     * first parent folder.
+     *
+     * @param entry the document entry.
+     */
+    public static String getCategory(DocumentListEntry entry) {
+        if (entry.getParentLinks() != null && entry.getParentLinks().size() > 0) {
+            return entry.getParentLinks().get(0).getTitle();
+        }
+        return DEFAULT_CATEGORY;
+    }
+}
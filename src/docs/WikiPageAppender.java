@@ -0,0 +1,139 @@
+package docs;
+
+import net.sourceforge.jwbf.core.contentRep.Article;
+import net.sourceforge.jwbf.mediawiki.bots.MediaWikiBot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes link appends to shared wiki pages such as the category pages and
+ * the root index.
+ *
+ * Each page title maps onto one of a fixed set of locks, so writers to
+ * different pages rarely wait on each other. Links for a page are queued before
+ * the lock is taken; whichever writer holds the lock drains every queued link
+ * for that page and saves them in a single edit. A popular category therefore
+ * costs one read and one save per batch of concurrent migrations instead of one
+ * per document, and no append is lost to a read-modify-write race.
+ *
+ * The stripes do not make wiki requests run in parallel. jwbf synchronizes
+ * every read and save on the bot, so appends to different pages still take
+ * turns on the one bot of a migrator, along with its page saves. The gain is
+ * the batching. For parallel wiki requests, run several bots, such as the
+ * workers of a {@link ShardedMigrator}.
+ */
+public class WikiPageAppender {
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final MediaWikiBot bot;
+    private final ReentrantLock[] locks;
+    private final ConcurrentMap<String, Queue<String>> pending =
+            new ConcurrentHashMap<String, Queue<String>>();
+
+    /**
+     * Constructor.
+     *
+     * @param bot the bot used to read and save pages.
+     */
+    public WikiPageAppender(MediaWikiBot bot) {
+        this(bot, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bot the bot used to read and save pages.
+     * @param stripes the number of locks shared among all page titles.
+     */
+    public WikiPageAppender(MediaWikiBot bot, int stripes) {
+        this.bot = bot;
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Adds a bulleted link to a page unless the page already links to the
+     * target. Returns once the link has been saved, either by this call or by a
+     * concurrent call for the same page.
+     *
+     * @param pageTitle the title of the page to append to.
+     * @param linkTarget the title of the page to link to.
+     */
+    public void addLink(String pageTitle, String linkTarget) {
+        Queue<String> queue = pending.get(pageTitle);
+        if (queue == null) {
+            Queue<String> created = new ConcurrentLinkedQueue<String>();
+            queue = pending.putIfAbsent(pageTitle, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        queue.add(linkTarget);
+
+        ReentrantLock lock = locks[(pageTitle.hashCode() & 0x7fffffff) % locks.length];
+        lock.lock();
+        try {
+            // Another writer may already have saved our link along with its own.
+            if (queue.isEmpty()) {
+                return;
+            }
+
+            List<String> targets = new ArrayList<String>();
+            String target;
+            while ((target = queue.poll()) != null) {
+                targets.add(target);
+            }
+
+            try {
+                FlightEvents.WikiGet get = new FlightEvents.WikiGet();
+                get.begin();
+                Article page = null;
+                try {
+                    page = bot.getArticle(pageTitle);
+                } finally {
+                    get.finish(null, pageTitle, page == null || page.getText() == null ? 0
+                            : page.getText().length(),
+                            page == null ? FlightEvents.FAILED : FlightEvents.OK);
+                }
+                String text = page.getText();
+                StringBuffer links = new StringBuffer();
+                for (String t : targets) {
+                    String link = "[[" + t + "]]";
+                    if (!text.contains(link) && links.indexOf(link) == -1) {
+                        links.append("\n*" + link);
+                    }
+                }
+                if (links.length() > 0) {
+                    page.addText(links.toString());
+                    FlightEvents.WikiSave save = new FlightEvents.WikiSave();
+                    save.begin();
+                    String outcome = FlightEvents.FAILED;
+                    try {
+                        page.save();
+                        outcome = FlightEvents.OK;
+                    } finally {
+                        save.finish(null, pageTitle, links.length(), outcome);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Put the links back so the next writer for this page retries them.
+                queue.addAll(targets);
+                throw e;
+            }
+
+            if (queue.isEmpty()) {
+                pending.remove(pageTitle, queue);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package docs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the wiki markup of a large document at its top-level headings, so
+ * that each section becomes a subpage and the document's own page becomes a
+ * table of contents.
+ *
+ * The top level is the shallowest heading level used in the text. Text before
+ * the first heading stays on the parent page. A section still longer than the
+ * limit is split again at its own top-level headings, under a contents page of
+ * its own, and a section without headings is split into numbered parts at line
+ * breaks, so that no page is longer than the limit.
+ */
+public class WikiPageSplitter {
+    private static final Pattern HEADING = Pattern.compile("^(=+)\\s*(.*?)\\s*\\1\\s*$");
+    // Characters MediaWiki does not allow in titles.
+    private static final Pattern ILLEGAL_TITLE_CHARS = Pattern.compile("[#<>\\[\\]|{}]+");
+    // A line of a contents page, as written by getContentsPage.
+    private static final Pattern CONTENTS_LINE = Pattern.compile(
+            "^\\* \\[\\[([^|\\]]+)\\|.*\\]\\]$", Pattern.MULTILINE);
+
+    /**
+     * One section of a split document.
+     */
+    public static class Section {
+        private final String heading;
+        private final String title;
+        private final String text;
+        private final int depth;
+
+        Section(String heading, String title, String text, int depth) {
+            this.heading = heading;
+            this.title = title;
+            this.text = text;
+            this.depth = depth;
+        }
+
+        public String getHeading() {
+            return heading;
+        }
+
+        /**
+         * Gets the title of the subpage holding the section.
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Gets the text of the subpage, which is itself a contents page if
+         * the section was split again.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Gets how deep the subpage is: 1 for those listed on the parent page,
+         * 2 for those listed on one of them, and so on.
+         */
+        public int getDepth() {
+            return depth;
+        }
+    }
+
+    private final int maxChars;
+    private final List<Section> sections = new ArrayList<Section>();
+    private final Set<String> titles = new HashSet<String>();
+    private final String contentsPage;
+
+    /**
+     * Splits a page.
+     *
+     * @param parentTitle the title of the page being split.
+     * @param content the wiki markup of the page.
+     * @param maxChars the longest a subpage may be, or 0 to split only at the
+     *        top-level headings.
+     */
+    public WikiPageSplitter(String parentTitle, String content, int maxChars) {
+        this.maxChars = maxChars > 0 ? maxChars : Integer.MAX_VALUE;
+        contentsPage = split(parentTitle, content, 1);
+    }
+
+    /**
+     * Gets the sections at every depth. A section split again comes after its
+     * own sections. There are none if the page has no headings and fits the
+     * limit.
+     */
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * Gets the text of the parent page: whatever came before the first heading,
+     * followed by links to every subpage.
+     */
+    public String getContentsPage() {
+        return contentsPage;
+    }
+
+    /**
+     * Gets the subpages a contents page links to.
+     *
+     * @param parentTitle the title of the contents page.
+     * @param text the text of the contents page, or of any page.
+     *
+     * @return the titles of the subpages, none if the text is not a contents
+     *         page.
+     */
+    public static Set<String> getSubpageTitles(String parentTitle, String text) {
+        Set<String> subpages = new LinkedHashSet<String>();
+        if (text != null) {
+            Matcher m = CONTENTS_LINE.matcher(text);
+            while (m.find()) {
+                if (m.group(1).startsWith(parentTitle + "/")) {
+                    subpages.add(m.group(1));
+                }
+            }
+        }
+        return subpages;
+    }
+
+    /**
+     * Splits the text of a page into subpages, adding them to the sections.
+     *
+     * @return the contents page listing the subpages.
+     */
+    private String split(String parentTitle, String content, int depth) {
+        String[] lines = content.split("\n", -1);
+        int topLevel = Integer.MAX_VALUE;
+        for (String line : lines) {
+            Matcher m = HEADING.matcher(line);
+            if (m.matches()) {
+                topLevel = Math.min(topLevel, m.group(1).length());
+            }
+        }
+        if (topLevel == Integer.MAX_VALUE) {
+            return splitParts(parentTitle, content, depth);
+        }
+
+        StringBuilder before = new StringBuilder();
+        List<String> headings = new ArrayList<String>();
+        List<StringBuilder> texts = new ArrayList<StringBuilder>();
+        StringBuilder text = before;
+        for (String line : lines) {
+            Matcher m = HEADING.matcher(line);
+            if (m.matches() && m.group(1).length() == topLevel) {
+                headings.add(m.group(2));
+                text = new StringBuilder();
+                texts.add(text);
+            } else {
+                text.append(line).append('\n');
+            }
+        }
+
+        StringBuilder page = new StringBuilder();
+        String preamble = before.toString().trim();
+        if (preamble.length() > maxChars) {
+            // Too long to stay on the contents page; it becomes a section.
+            headings.add(0, "Introduction");
+            texts.add(0, before);
+        } else if (!preamble.isEmpty()) {
+            page.append(preamble).append("\n\n");
+        }
+        for (int i = 0; i < headings.size(); i++) {
+            Section section = newSection(parentTitle, headings.get(i),
+                    texts.get(i).toString().trim(), depth);
+            page.append("* [[").append(section.getTitle()).append('|')
+                    .append(section.getHeading()).append("]]\n");
+        }
+        return page.toString();
+    }
+
+    /**
+     * Splits text without headings into numbered parts at line breaks, or at
+     * spaces within lines too long for one part.
+     *
+     * @return the contents page listing the parts.
+     */
+    private String splitParts(String parentTitle, String content, int depth) {
+        List<String> parts = new ArrayList<String>();
+        StringBuilder part = new StringBuilder();
+        for (String line : content.split("\n", -1)) {
+            while (line.length() > maxChars) {
+                int cut = line.lastIndexOf(' ', maxChars);
+                if (cut <= 0) {
+                    cut = maxChars;
+                }
+                if (part.length() > 0) {
+                    parts.add(part.toString().trim());
+                    part.setLength(0);
+                }
+                parts.add(line.substring(0, cut).trim());
+                line = line.substring(cut);
+            }
+            if (part.length() + line.length() + 1 > maxChars && part.length() > 0) {
+                parts.add(part.toString().trim());
+                part.setLength(0);
+            }
+            part.append(line).append('\n');
+        }
+        if (part.toString().trim().length() > 0) {
+            parts.add(part.toString().trim());
+        }
+
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            Section section = newSection(parentTitle, "Part " + (i + 1), parts.get(i), depth);
+            page.append("* [[").append(section.getTitle()).append('|')
+                    .append(section.getHeading()).append("]]\n");
+        }
+        return page.toString();
+    }
+
+    /**
+     * Adds a section, split again if it is too long.
+     */
+    private Section newSection(String parentTitle, String heading, String text, int depth) {
+        String name = ILLEGAL_TITLE_CHARS.matcher(heading).replaceAll(" ").trim();
+        if (name.isEmpty()) {
+            name = "Section " + (titles.size() + 1);
+        }
+        String title = parentTitle + "/" + name;
+        for (int i = 2; !titles.add(title.toLowerCase()); i++) {
+            title = parentTitle + "/" + name + " (" + i + ")";
+        }
+        if (text.length() > maxChars) {
+            text = split(title, text, depth + 1);
+        }
+        Section section = new Section(heading, title, text, depth);
+        sections.add(section);
+        return section;
+    }
+}
@@ -0,0 +1,105 @@
+package docs;
+
+import net.sourceforge.jwbf.core.actions.HttpActionClient;
+import net.sourceforge.jwbf.core.contentRep.Userinfo;
+import net.sourceforge.jwbf.mediawiki.bots.MediaWikiBot;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.HttpClientBuilder;
+
+import java.util.List;
+
+/**
+ * Opens logged in MediaWiki bots, reusing the session cookies of an earlier run
+ * when they are still valid.
+ *
+ * A bot makes one request at a time: jwbf synchronizes its reads and saves, so
+ * every thread sharing a bot waits for the others.
+ */
+public class WikiSession {
+    private WikiSession() {
+    }
+
+    /**
+     * Returns a bot logged in to a wiki. If the session store holds cookies for
+     * the user and the wiki still accepts them, no login request is made.
+     *
+     * @param wikiUrl the url of the wiki.
+     * @param user the wiki user name.
+     * @param password the wiki password.
+     * @param sessionStore where session cookies are kept, or null to always log
+     *        in.
+     */
+    public static MediaWikiBot login(String wikiUrl, String user, String password,
+                                     SessionStore sessionStore) {
+        BasicCookieStore cookieStore = new BasicCookieStore();
+        List<Cookie> saved = null;
+        if (sessionStore != null) {
+            saved = sessionStore.loadCookies(wikiUrl, user);
+            for (Cookie cookie : saved) {
+                cookieStore.addCookie(cookie);
+            }
+        }
+
+        HttpActionClient client = HttpActionClient.builder()
+                .withUrl(wikiUrl)
+                .withClient(HttpClientBuilder.create().setDefaultCookieStore(cookieStore).build())
+                .build();
+        SessionBot bot = new SessionBot(client);
+
+        FlightEvents.Auth event = new FlightEvents.Auth();
+        event.begin();
+        if (saved != null && !saved.isEmpty()) {
+            try {
+                Userinfo info = bot.getUserinfo();
+                if (info != null && isSameUser(info.getUsername(), user)) {
+                    bot.restored = true;
+                    event.finish(wikiUrl, FlightEvents.RESTORED);
+                    return bot;
+                }
+            } catch (RuntimeException e) {
+                // The saved session is unusable; fall through to a fresh login.
+            }
+        }
+
+        String outcome = FlightEvents.FAILED;
+        try {
+            bot.login(user, password);
+            outcome = FlightEvents.OK;
+        } finally {
+            event.finish(wikiUrl, outcome);
+        }
+        if (sessionStore != null) {
+            sessionStore.saveCookies(wikiUrl, user, cookieStore.getCookies());
+        }
+        return bot;
+    }
+
+    /**
+     * Compares user names the way MediaWiki normalizes them: underscores are
+     * spaces and the first letter is upper case.
+     */
+    private static boolean isSameUser(String wikiName, String user) {
+        if (wikiName == null || user == null) {
+            return false;
+        }
+        return wikiName.replace('_', ' ').equalsIgnoreCase(user.replace('_', ' '));
+    }
+
+    /**
+     * A bot that counts as logged in when it runs on restored session cookies.
+     * jwbf only knows about sessions created through its own login call.
+     */
+    private static class SessionBot extends MediaWikiBot {
+        private volatile boolean restored;
+
+        SessionBot(HttpActionClient client) {
+            super(client);
+        }
+
+        @Override
+        public boolean isLoggedIn() {
+            return restored || super.isLoggedIn();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package docs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A record of which documents a group of worker processes has claimed and
+ * finished, kept as files in a directory they all share, such as one on a
+ * network file system. Workers need nothing else in common to split a run.
+ *
+ * Each claim is a lease. A worker renews its leases with {@link #renew} while
+ * it works, and a claim whose lease has run out may be claimed again, so the
+ * documents of a crashed worker are picked up by the others. Claims are files
+ * numbered by generation, and each generation is created with an exclusive
+ * create, so however many workers race for a document, exactly one wins each
+ * generation. Finishing a document renames its record into place, so a record
+ * is never seen half written.
+ *
+ * Leases are judged by file modification times against the local clock, so
+ * the clocks of the machines must agree to well within the lease time.
+ *
+ * A ledger may be used from several threads at once.
+ */
+public class WorkLedger {
+    /** The default time a claim lasts without being renewed. */
+    public static final long DEFAULT_LEASE_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Where a document stands.
+     */
+    public enum State {
+        /** No worker has claimed it yet. */
+        UNCLAIMED,
+        /** A worker holds a live lease on it. */
+        HELD,
+        /** The lease of the worker that claimed it has run out. */
+        EXPIRED,
+        /** It is finished, whether it succeeded or failed. */
+        DONE
+    }
+
+    private static final String OK = "ok";
+
+    private final Path claims;
+    private final Path done;
+    private final Path workers;
+    private final String workerName;
+    private final long leaseMillis;
+    private final Set<Claim> held =
+            Collections.newSetFromMap(new ConcurrentHashMap<Claim, Boolean>());
+
+    /**
+     * A claim on a document by this worker.
+     */
+    public static class Claim {
+        private final String resourceId;
+        private final Path path;
+
+        private Claim(String resourceId, Path path) {
+            this.resourceId = resourceId;
+            this.path = path;
+        }
+
+        public String getResourceId() {
+            return resourceId;
+        }
+    }
+
+    /**
+     * Constructor. Creates the directories of the ledger if they do not
+     * exist.
+     *
+     * @param directory the directory every worker of the run shares.
+     * @param leaseMillis how long a claim lasts without being renewed.
+     *
+     * @throws IOException
+     */
+    public WorkLedger(File directory, long leaseMillis) throws IOException {
+        Path root = directory.toPath();
+        claims = Files.createDirectories(root.resolve("claims"));
+        done = Files.createDirectories(root.resolve("done"));
+        workers = Files.createDirectories(root.resolve("workers"));
+        // Such as "12345@host", which tells apart processes on all machines.
+        workerName = ManagementFactory.getRuntimeMXBean().getName();
+        this.leaseMillis = leaseMillis;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * Gets where a document stands.
+     *
+     * @throws IOException
+     */
+    public State getState(String resourceId) throws IOException {
+        String name = getFileName(resourceId);
+        if (Files.exists(done.resolve(name))) {
+            return State.DONE;
+        }
+        int generations = countClaims(name);
+        if (generations == 0) {
+            return State.UNCLAIMED;
+        }
+        return isExpired(getClaimPath(name, generations - 1)) ? State.EXPIRED : State.HELD;
+    }
+
+    /**
+     * Gets where every claimed or finished document stands, from one listing
+     * of the claims and one of the finished documents. Only documents claimed
+     * but not finished need their lease read, so this is much cheaper than
+     * {@link #getState} for each document on a network file system.
+     *
+     * @return the state of each resource id, without those still unclaimed.
+     *
+     * @throws IOException
+     */
+    public Map<String, State> getStates() throws IOException {
+        Map<String, State> states = new HashMap<String, State>();
+        DirectoryStream<Path> records = Files.newDirectoryStream(done);
+        try {
+            for (Path record : records) {
+                String name = record.getFileName().toString();
+                // Skip records still being written.
+                if (!name.contains(".tmp-")) {
+                    states.put(getResourceId(name), State.DONE);
+                }
+            }
+        } finally {
+            records.close();
+        }
+
+        // The latest generation of each claim.
+        Map<String, Integer> generations = new HashMap<String, Integer>();
+        DirectoryStream<Path> paths = Files.newDirectoryStream(claims);
+        try {
+            for (Path path : paths) {
+                String file = path.getFileName().toString();
+                int dot = file.lastIndexOf('.');
+                String name = file.substring(0, dot);
+                int generation = Integer.parseInt(file.substring(dot + 1));
+                Integer latest = generations.get(name);
+                if (latest == null || latest < generation) {
+                    generations.put(name, generation);
+                }
+            }
+        } finally {
+            paths.close();
+        }
+        for (Map.Entry<String, Integer> claim : generations.entrySet()) {
+            String resourceId = getResourceId(claim.getKey());
+            if (!states.containsKey(resourceId)) {
+                states.put(resourceId, isExpired(getClaimPath(claim.getKey(), claim.getValue()))
+                        ? State.EXPIRED : State.HELD);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Claims a document that is unclaimed or whose lease has run out.
+     *
+     * @return the claim, or null if the document is done or another worker
+     *         holds it.
+     *
+     * @throws IOException
+     */
+    public Claim claim(String resourceId) throws IOException {
+        String name = getFileName(resourceId);
+        if (Files.exists(done.resolve(name))) {
+            return null;
+        }
+        int generations = countClaims(name);
+        if (generations > 0 && !isExpired(getClaimPath(name, generations - 1))) {
+            return null;
+        }
+        Path path = getClaimPath(name, generations);
+        try {
+            Files.write(path, workerName.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            // Another worker won this generation.
+            return null;
+        }
+        // It may have been finished between the check and the claim.
+        if (Files.exists(done.resolve(name))) {
+            return null;
+        }
+        Claim claim = new Claim(resourceId, path);
+        held.add(claim);
+        return claim;
+    }
+
+    /**
+     * Records a claimed document as finished and gives up its lease.
+     *
+     * @param claim the claim, from {@link #claim}.
+     * @param failure why the document failed, or null if it succeeded.
+     *
+     * @throws IOException
+     */
+    public void complete(Claim claim, String failure) throws IOException {
+        held.remove(claim);
+        String name = getFileName(claim.getResourceId());
+        String outcome = failure == null ? OK : "failed " + failure.replace('\n', ' ');
+        String record = outcome + "\n" + workerName + "\n";
+        Path temp = done.resolve(name + ".tmp-" + getFileName(workerName) + "-"
+                + Thread.currentThread().getId());
+        Files.write(temp, record.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, done.resolve(name), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gives up a claim without finishing the document, so that another
+     * worker may take it at once.
+     */
+    public void release(Claim claim) throws IOException {
+        held.remove(claim);
+        // Backdating the lease expires it; deleting it would let the next
+        // claim reuse the generation a slow worker might still be renewing.
+        Files.setLastModifiedTime(claim.path, FileTime.fromMillis(0));
+    }
+
+    /**
+     * Tells whether a finished document failed, and why.
+     *
+     * @return the reason, or null if it succeeded or is not finished.
+     *
+     * @throws IOException
+     */
+    public String getFailure(String resourceId) throws IOException {
+        Path record = done.resolve(getFileName(resourceId));
+        String text;
+        try {
+            text = new String(Files.readAllBytes(record), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        String outcome = text.substring(0, Math.max(0, text.indexOf('\n')));
+        return outcome.startsWith("failed ") ? outcome.substring(7) : null;
+    }
+
+    /**
+     * Renews the leases of every claim this worker holds, and marks a shard
+     * as alive.
+     *
+     * @param shard the shard this worker runs.
+     *
+     * @throws IOException
+     */
+    public void renew(int shard) throws IOException {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (Claim claim : held) {
+            try {
+                Files.setLastModifiedTime(claim.path, now);
+            } catch (NoSuchFileException e) {
+                // Removed by hand; the worker finishes it anyway.
+            }
+        }
+        Path worker = workers.resolve(Integer.toString(shard));
+        Files.write(worker, workerName.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tells whether the worker of a shard has renewed within the lease time.
+     *
+     * @throws IOException
+     */
+    public boolean isAlive(int shard) throws IOException {
+        Path worker = workers.resolve(Integer.toString(shard));
+        return Files.exists(worker) && !isExpired(worker);
+    }
+
+    /**
+     * Counts the claims ever made on a document, which are numbered from 0.
+     */
+    private int countClaims(String name) {
+        int generations = 0;
+        while (Files.exists(getClaimPath(name, generations))) {
+            generations++;
+        }
+        return generations;
+    }
+
+    private Path getClaimPath(String name, int generation) {
+        return claims.resolve(name + "." + generation);
+    }
+
+    private boolean isExpired(Path path) throws IOException {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis()
+                    > leaseMillis;
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private static String getResourceId(String fileName) {
+        try {
+            return URLDecoder.decode(fileName, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every Java platform has UTF-8.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getFileName(String id) {
+        try {
+            return URLEncoder.encode(id, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every Java platform has UTF-8.
+            throw new IllegalStateException(e);
+        }
+    }
+}
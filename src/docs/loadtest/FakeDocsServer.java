@@ -0,0 +1,362 @@
+package docs.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A stand-in for the Documents List feeds and the document export service,
+ * serving a generated corpus of documents spread over a number of folders.
+ *
+ * Create a DocumentList with "http://" + {@link #getAddress()} as its host and
+ * log it in with any AuthSub token.
+ */
+public class FakeDocsServer extends FakeServer {
+    private static final String FEED_PATH = "/feeds/default/private/full";
+    private static final String EXPORT_PATH = "/feeds/download/documents/Export";
+    private static final String CHANGES_PATH = "/feeds/default/private/changes";
+    private static final String METADATA_PATH = "/feeds/metadata/default";
+    private static final String ATOM = "application/atom+xml; charset=UTF-8";
+    private static final String UPDATED = "2015-05-13T00:00:00.000Z";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final int documentCount;
+    private final int folderCount;
+    private final int documentBytes;
+    private int largeEvery;
+    private int largeBytes;
+    private int copiesOf;
+    // The changestamp of the latest change to each document.
+    private final long[] changestamps;
+    private long largestChangestamp;
+
+    /**
+     * Constructor.
+     *
+     * @param documentCount the number of documents in the corpus.
+     * @param folderCount the number of folders the documents are spread over.
+     * @param documentBytes the approximate size of each exported document.
+     */
+    public FakeDocsServer(int documentCount, int folderCount, int documentBytes) {
+        this.documentCount = documentCount;
+        this.folderCount = Math.max(1, folderCount);
+        this.documentBytes = documentBytes;
+        changestamps = new long[documentCount];
+        for (int n = 0; n < documentCount; n++) {
+            changestamps[n] = n + 1;
+        }
+        largestChangestamp = documentCount;
+    }
+
+    /**
+     * Makes every n-th document much larger than the rest, the way a few huge
+     * documents sit among many small ones in a real corpus.
+     *
+     * @param every how often a document is large, or 0 for never.
+     * @param bytes the approximate size of the large documents.
+     */
+    public void setLargeDocuments(int every, int bytes) {
+        this.largeEvery = every;
+        this.largeBytes = bytes;
+    }
+
+    /**
+     * Makes documents copies of each other in runs, the way people copy a
+     * document into several folders. Copies keep their own titles.
+     *
+     * @param count how many documents in a row share their content, or 0 or 1
+     *        for none.
+     */
+    public void setCopies(int count) {
+        this.copiesOf = count;
+    }
+
+    /**
+     * Records a change to the n-th document, so that it shows up in the changes
+     * feed again.
+     */
+    public synchronized void touch(int n) {
+        changestamps[n] = ++largestChangestamp;
+    }
+
+    /**
+     * Gets the resource id of the n-th document of the corpus, counting from 0.
+     */
+    public static String getResourceId(int n) {
+        return "document:" + getKey(n);
+    }
+
+    @Override
+    protected void serve(HttpExchange exchange) throws IOException {
+        String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8");
+        Map<String, String> parameters = getParameters(exchange);
+        String base = "http://" + exchange.getRequestHeaders().getFirst("Host");
+
+        if (path.equals(EXPORT_PATH)) {
+            int n = getIndex(parameters.get("id"));
+            if (n < 0) {
+                send(exchange, 404, "text/plain", "Not Found");
+            } else {
+                send(exchange, 200, "text/html; charset=UTF-8", getDocumentHtml(n));
+            }
+        } else if (path.equals(CHANGES_PATH)) {
+            send(exchange, 200, ATOM, getChangesFeed(base, parameters));
+        } else if (path.equals(METADATA_PATH)) {
+            send(exchange, 200, ATOM, "<?xml version='1.0' encoding='UTF-8'?>"
+                    + "<entry xmlns='http://www.w3.org/2005/Atom'"
+                    + " xmlns:docs='http://schemas.google.com/docs/2007'>"
+                    + "<id>" + base + METADATA_PATH + "</id>"
+                    + "<updated>" + UPDATED + "</updated>"
+                    + "<category scheme='http://schemas.google.com/g/2005#kind'"
+                    + " term='http://schemas.google.com/docs/2007#metadata'/>"
+                    + "<title>Metadata</title>"
+                    + "<docs:largestChangestamp value='" + getLargestChangestamp() + "'/>"
+                    + "</entry>");
+        } else if (path.equals(FEED_PATH) || path.equals(FEED_PATH + "/-/document")) {
+            send(exchange, 200, ATOM, getFeed(base, path, parameters, -1));
+        } else if (path.startsWith(FEED_PATH + "/folder:") && path.endsWith("/contents")) {
+            String folder = path.substring(FEED_PATH.length() + 8, path.length() - 9);
+            send(exchange, 200, ATOM, getFeed(base, path, parameters, getIndex(folder)));
+        } else if (path.startsWith(FEED_PATH + "/document:")) {
+            int n = getIndex(path.substring(FEED_PATH.length() + 1));
+            if (n < 0) {
+                send(exchange, 404, "text/plain", "Not Found");
+            } else if (getEtag(n).equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                send(exchange, 304, ATOM, "");
+            } else {
+                send(exchange, 200, ATOM, "<?xml version='1.0' encoding='UTF-8'?>"
+                        + getEntry(base, n, true));
+            }
+        } else {
+            send(exchange, 404, "text/plain", "Not Found");
+        }
+    }
+
+    private String getFeed(String base, String path, Map<String, String> parameters,
+                           int folder) {
+        int start = parseInt(parameters.get("start-index"), 1);
+        int pageSize = parseInt(parameters.get("max-results"), DEFAULT_PAGE_SIZE);
+        // Any projection gets the summary fields the migration reads.
+        boolean summary = parameters.containsKey("fields");
+
+        StringBuilder feed = new StringBuilder();
+        feed.append("<?xml version='1.0' encoding='UTF-8'?>"
+                + "<feed xmlns='http://www.w3.org/2005/Atom'"
+                + " xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/'"
+                + " xmlns:docs='http://schemas.google.com/docs/2007'"
+                + " xmlns:gd='http://schemas.google.com/g/2005'"
+                + " gd:etag='W/\"fake-feed\"'>"
+                + "<id>" + base + path + "</id>"
+                + "<updated>" + UPDATED + "</updated>"
+                + "<title>Available Documents</title>"
+                + "<link rel='http://schemas.google.com/g/2005#feed'"
+                + " type='application/atom+xml' href='" + base + path + "'/>"
+                + "<link rel='self' type='application/atom+xml' href='" + base + path
+                + "?start-index=" + start + "'/>");
+
+        int total = folder < 0 ? documentCount : countInFolder(folder);
+        if (start - 1 + pageSize < total) {
+            feed.append("<link rel='next' type='application/atom+xml' href='" + base + path
+                    + "?start-index=" + (start + pageSize) + "&amp;max-results=" + pageSize
+                    + (summary ? "&amp;fields=summary" : "") + "'/>");
+        }
+        feed.append("<openSearch:totalResults>" + total + "</openSearch:totalResults>"
+                + "<openSearch:startIndex>" + start + "</openSearch:startIndex>");
+
+        for (int i = start - 1; i < total && i < start - 1 + pageSize; i++) {
+            int n = folder < 0 ? i : folder + i * folderCount;
+            feed.append(summary ? getSummaryEntry(base, n) : getEntry(base, n, false));
+        }
+        feed.append("</feed>");
+        return feed.toString();
+    }
+
+    /**
+     * Lists the documents whose latest change is at or after start-index, in
+     * changestamp order.
+     */
+    private synchronized String getChangesFeed(String base, Map<String, String> parameters) {
+        long start = parseInt(parameters.get("start-index"), 1);
+        int pageSize = parseInt(parameters.get("max-results"), DEFAULT_PAGE_SIZE);
+
+        List<Integer> changed = new ArrayList<Integer>();
+        for (int n = 0; n < documentCount; n++) {
+            if (changestamps[n] >= start) {
+                changed.add(n);
+            }
+        }
+        Collections.sort(changed, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.valueOf(changestamps[a]).compareTo(changestamps[b]);
+            }
+        });
+
+        StringBuilder feed = new StringBuilder();
+        feed.append("<?xml version='1.0' encoding='UTF-8'?>"
+                + "<feed xmlns='http://www.w3.org/2005/Atom'"
+                + " xmlns:docs='http://schemas.google.com/docs/2007'"
+                + " xmlns:gd='http://schemas.google.com/g/2005'>"
+                + "<id>" + base + CHANGES_PATH + "</id>"
+                + "<updated>" + UPDATED + "</updated>"
+                + "<title>Changes</title>"
+                + "<docs:largestChangestamp value='" + largestChangestamp + "'/>");
+        if (changed.size() > pageSize) {
+            long next = changestamps[changed.get(pageSize - 1)] + 1;
+            feed.append("<link rel='next' type='application/atom+xml' href='" + base
+                    + CHANGES_PATH + "?start-index=" + next + "&amp;max-results=" + pageSize
+                    + "'/>");
+        }
+        for (int i = 0; i < changed.size() && i < pageSize; i++) {
+            int n = changed.get(i);
+            feed.append(getEntry(base, n, false).replace("</entry>",
+                    "<docs:changestamp value='" + changestamps[n] + "'/></entry>"));
+        }
+        feed.append("</feed>");
+        return feed.toString();
+    }
+
+    private synchronized long getLargestChangestamp() {
+        return largestChangestamp;
+    }
+
+    private String getEntry(String base, int n, boolean standalone) {
+        String resourceId = getResourceId(n);
+        String self = base + FEED_PATH + "/" + resourceId.replace(":", "%3A");
+        int folder = n % folderCount;
+
+        StringBuilder entry = new StringBuilder();
+        entry.append("<entry");
+        if (standalone) {
+            entry.append(" xmlns='http://www.w3.org/2005/Atom'"
+                    + " xmlns:docs='http://schemas.google.com/docs/2007'"
+                    + " xmlns:gd='http://schemas.google.com/g/2005'");
+        }
+        entry.append(" gd:etag='" + getEtag(n) + "'>"
+                + "<id>" + base + "/feeds/id/" + resourceId.replace(":", "%3A") + "</id>"
+                + "<published>" + UPDATED + "</published>"
+                + "<updated>" + UPDATED + "</updated>"
+                + "<category scheme='http://schemas.google.com/g/2005#kind'"
+                + " term='http://schemas.google.com/docs/2007#document' label='document'/>"
+                + "<title>Document " + (n + 1) + "</title>"
+                + "<content type='text/html' src='" + base + EXPORT_PATH + "?id="
+                + getKey(n) + "'/>"
+                + "<link rel='http://schemas.google.com/docs/2007#parent'"
+                + " type='application/atom+xml' href='" + base + FEED_PATH + "/folder%3A"
+                + getKey(folder) + "' title='Folder " + (folder + 1) + "'/>"
+                + "<link rel='self' type='application/atom+xml' href='" + self + "'/>"
+                + "<link rel='edit' type='application/atom+xml' href='" + self + "'/>"
+                + "<author><name>fake</name><email>fake@example.com</email></author>"
+                + "<gd:resourceId>" + resourceId + "</gd:resourceId>"
+                + "<gd:lastModifiedBy><name>fake</name><email>fake@example.com</email>"
+                + "</gd:lastModifiedBy>"
+                + "<gd:quotaBytesUsed>" + getDocumentBytes(n) + "</gd:quotaBytesUsed>"
+                + "</entry>");
+        return entry.toString();
+    }
+
+    private String getSummaryEntry(String base, int n) {
+        int folder = n % folderCount;
+        return "<entry gd:etag='" + getEtag(n) + "'>"
+                + "<updated>" + UPDATED + "</updated>"
+                + "<category scheme='http://schemas.google.com/g/2005#kind'"
+                + " term='http://schemas.google.com/docs/2007#document' label='document'/>"
+                + "<title>Document " + (n + 1) + "</title>"
+                + "<link rel='http://schemas.google.com/docs/2007#parent'"
+                + " type='application/atom+xml' href='" + base + FEED_PATH + "/folder%3A"
+                + getKey(folder) + "' title='Folder " + (folder + 1) + "'/>"
+                + "<gd:resourceId>" + getResourceId(n) + "</gd:resourceId>"
+                + "<gd:quotaBytesUsed>" + getDocumentBytes(n) + "</gd:quotaBytesUsed>"
+                + "</entry>";
+    }
+
+    private int getDocumentBytes(int n) {
+        n = getOriginal(n);
+        return largeEvery > 0 && n % largeEvery == 0 ? largeBytes : documentBytes;
+    }
+
+    /**
+     * Gets the document whose content the n-th document has, which is the
+     * first of its run of copies.
+     */
+    private int getOriginal(int n) {
+        return copiesOf > 1 ? n - n % copiesOf : n;
+    }
+
+    /**
+     * Generates the HTML export of a document: headings, paragraphs, a list
+     * and a link to another document of the corpus.
+     */
+    private String getDocumentHtml(int n) {
+        StringBuilder html = new StringBuilder();
+        html.append("<html><head><title>Document " + (n + 1) + "</title></head><body>");
+        n = getOriginal(n);
+        int section = 0;
+        int bytes = getDocumentBytes(n);
+        while (html.length() < bytes) {
+            section++;
+            html.append("<h1>Section " + section + "</h1>"
+                    + "<p>Paragraph of <b>document " + (n + 1) + "</b> in section " + section
+                    + ", with <i>some</i> text to convert. See <a href='https://docs.google.com/"
+                    + "document/d/" + getKey((n + section) % documentCount) + "/edit'>the"
+                    + " related document</a>.</p>"
+                    + "<ul><li>First point</li><li>Second point</li></ul>");
+        }
+        html.append("</body></html>");
+        return html.toString();
+    }
+
+    private int countInFolder(int folder) {
+        if (folder < 0 || folder >= folderCount) {
+            return 0;
+        }
+        return (documentCount - folder + folderCount - 1) / folderCount;
+    }
+
+    /**
+     * Gets the etag of the n-th document, which changes with each
+     * {@link #touch}.
+     */
+    private synchronized String getEtag(int n) {
+        return "\"etag-" + n + "-" + changestamps[n] + "\"";
+    }
+
+    private static String getKey(int n) {
+        return String.format("key%08d", n);
+    }
+
+    /**
+     * Gets the number of a document or folder from its key or resource id.
+     */
+    private int getIndex(String id) {
+        if (id == null) {
+            return -1;
+        }
+        int start = id.indexOf("key");
+        if (start < 0) {
+            return -1;
+        }
+        try {
+            int n = Integer.parseInt(id.substring(start + 3));
+            return n < documentCount ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
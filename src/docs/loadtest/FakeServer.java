@@ -0,0 +1,233 @@
+package docs.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Base class of the embedded stand-in servers. Adds a configurable delay and
+ * failure rate to every request and counts what was served.
+ */
+public abstract class FakeServer implements HttpHandler {
+    private final Random random = new Random();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Sets the delay added before every response.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the fraction of requests, between 0 and 1, answered with a 503.
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Starts serving on a free port of the loopback interface.
+     *
+     * @param threads the number of request handling threads.
+     *
+     * @throws IOException
+     */
+    public void start(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the "host:port" the server listens on.
+     */
+    public String getAddress() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (errorRate > 0 && nextDouble() < errorRate) {
+                failures.incrementAndGet();
+                drain(exchange.getRequestBody());
+                send(exchange, 503, "text/plain", "Service Unavailable");
+                return;
+            }
+            serve(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            send(exchange, 500, "text/plain", String.valueOf(e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answers one request that was not picked to fail.
+     */
+    protected abstract void serve(HttpExchange exchange) throws IOException;
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    protected static void send(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        send(exchange, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (status == 304) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream outStream = exchange.getResponseBody();
+        outStream.write(body);
+        outStream.close();
+    }
+
+    /**
+     * Parses the query string and, for POST requests, the url-encoded or
+     * multipart form body into one parameter map.
+     */
+    protected static Map<String, String> getParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parseQuery(exchange.getRequestURI().getRawQuery(), parameters);
+
+        if ("POST".equals(exchange.getRequestMethod())) {
+            String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (contentType != null && contentType.startsWith("multipart/form-data")) {
+                parseMultipart(body, contentType, parameters);
+            } else {
+                parseQuery(body, parameters);
+            }
+        }
+        return parameters;
+    }
+
+    private static void parseQuery(String query, Map<String, String> parameters)
+            throws UnsupportedEncodingException {
+        if (query == null || query.length() == 0) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                parameters.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private static void parseMultipart(String body, String contentType,
+                                       Map<String, String> parameters) {
+        String boundary = "--" + contentType.substring(contentType.indexOf("boundary=") + 9);
+        for (String part : body.split(Pattern.quote(boundary))) {
+            int nameStart = part.indexOf("name=\"");
+            int headerEnd = part.indexOf("\r\n\r\n");
+            if (nameStart < 0 || headerEnd < 0) {
+                continue;
+            }
+            String name = part.substring(nameStart + 6, part.indexOf('"', nameStart + 6));
+            String value = part.substring(headerEnd + 4);
+            if (value.endsWith("\r\n")) {
+                value = value.substring(0, value.length() - 2);
+            }
+            parameters.put(name, value);
+        }
+    }
+
+    protected static byte[] readAll(InputStream inStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = inStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void drain(InputStream inStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (inStream.read(buffer) != -1) {
+            // Discard the request body so the connection can be reused.
+        }
+    }
+
+    /**
+     * Escapes text for use in XML content and attribute values.
+     */
+    protected static String xml(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,161 @@
+package docs.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the MediaWiki web API, covering the calls a MediaWikiBot makes
+ * to log in, read pages and save them. Pages are kept in memory.
+ *
+ * Point a bot at "http://" + {@link #getAddress()} + "/wiki/".
+ */
+public class FakeWikiServer extends FakeServer {
+    private static final String API_PATH = "/wiki/api.php";
+    private static final String SESSION_COOKIE = "fakewiki_session";
+    private static final String TIMESTAMP = "2015-05-13T00:00:00Z";
+
+    private final ConcurrentMap<String, Page> pages = new ConcurrentHashMap<String, Page>();
+    private final AtomicLong revisions = new AtomicLong();
+    private final AtomicLong edits = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+
+    /**
+     * Gets the current text of a page, or null if it does not exist.
+     */
+    public String getPageText(String title) {
+        Page page = pages.get(title);
+        return page == null ? null : page.text;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public long getEditCount() {
+        return edits.get();
+    }
+
+    public long getReadCount() {
+        return reads.get();
+    }
+
+    @Override
+    protected void serve(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals(API_PATH)) {
+            send(exchange, 404, "text/plain", "Not Found");
+            return;
+        }
+
+        Map<String, String> parameters = getParameters(exchange);
+        String action = parameters.get("action");
+        String body;
+        if ("login".equals(action)) {
+            body = login(exchange, parameters);
+        } else if ("edit".equals(action)) {
+            body = edit(parameters);
+        } else if ("query".equals(action)) {
+            body = query(parameters);
+        } else {
+            body = "<error code=\"unknown_action\" info=\"Unrecognized value for parameter"
+                    + " 'action'\"/>";
+        }
+        send(exchange, 200, "text/xml; charset=utf-8",
+                "<?xml version=\"1.0\"?><api>" + body + "</api>");
+    }
+
+    private String login(HttpExchange exchange, Map<String, String> parameters) {
+        String user = parameters.get("lgname");
+        if (parameters.get("lgtoken") == null) {
+            exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + xml(user)
+                    + "; Path=/");
+            return "<login result=\"NeedToken\" token=\"logintoken\" cookieprefix=\"fakewiki\""
+                    + " sessionid=\"" + xml(user) + "\"/>";
+        }
+        return "<login result=\"Success\" lguserid=\"1\" lgusername=\"" + xml(user) + "\""
+                + " lgtoken=\"usertoken\" cookieprefix=\"fakewiki\" sessionid=\"" + xml(user)
+                + "\"/>";
+    }
+
+    private String query(Map<String, String> parameters) {
+        StringBuilder result = new StringBuilder("<query>");
+        String meta = parameters.get("meta");
+        if (meta != null && meta.contains("siteinfo")) {
+            result.append("<general mainpage=\"Main Page\" sitename=\"FakeWiki\""
+                    + " generator=\"MediaWiki 1.23.0\" case=\"first-letter\" lang=\"en\"/>"
+                    + "<namespaces><ns id=\"0\" case=\"first-letter\" xml:space=\"preserve\"/>"
+                    + "</namespaces>");
+        }
+        if (meta != null && meta.contains("userinfo")) {
+            result.append("<userinfo id=\"1\" name=\"FakeUser\"><groups><g>user</g></groups>"
+                    + "<rights><r>edit</r><r>writeapi</r></rights></userinfo>");
+        }
+
+        String titles = parameters.get("titles");
+        if (titles != null) {
+            result.append("<pages>");
+            for (String title : titles.split("\\|")) {
+                result.append(describePage(title, parameters));
+            }
+            result.append("</pages>");
+        }
+        result.append("</query>");
+        return result.toString();
+    }
+
+    private String describePage(String title, Map<String, String> parameters) {
+        Page page = pages.get(title);
+        String edittoken = "";
+        if ("edit".equals(parameters.get("intoken"))) {
+            edittoken = " edittoken=\"+\\\" starttimestamp=\"" + TIMESTAMP + "\"";
+        }
+
+        if (page == null) {
+            return "<page ns=\"0\" title=\"" + xml(title) + "\" missing=\"\"" + edittoken + "/>";
+        }
+
+        StringBuilder result = new StringBuilder();
+        result.append("<page pageid=\"" + page.id + "\" ns=\"0\" title=\"" + xml(title) + "\""
+                + " lastrevid=\"" + page.revision + "\"" + edittoken + ">");
+        if ("revisions".equals(parameters.get("prop"))) {
+            reads.incrementAndGet();
+            result.append("<revisions><rev revid=\"" + page.revision + "\" parentid=\"0\""
+                    + " user=\"FakeUser\" timestamp=\"" + TIMESTAMP + "\" comment=\"\""
+                    + " xml:space=\"preserve\">" + xml(page.text) + "</rev></revisions>");
+        }
+        result.append("</page>");
+        return result.toString();
+    }
+
+    private String edit(Map<String, String> parameters) {
+        String title = parameters.get("title");
+        String text = parameters.get("text");
+        if (title == null || text == null) {
+            return "<error code=\"notext\" info=\"One of the text parameters must be set\"/>";
+        }
+
+        edits.incrementAndGet();
+        long revision = revisions.incrementAndGet();
+        Page previous = pages.get(title);
+        long id = previous == null ? revision : previous.id;
+        pages.put(title, new Page(id, revision, text));
+        return "<edit result=\"Success\" pageid=\"" + id + "\" title=\"" + xml(title) + "\""
+                + " newrevid=\"" + revision + "\" newtimestamp=\"" + TIMESTAMP + "\"/>";
+    }
+
+    private static class Page {
+        final long id;
+        final long revision;
+        final String text;
+
+        Page(long id, long revision, String text) {
+            this.id = id;
+            this.revision = revision;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package docs.loadtest;
+
+import com.google.gdata.data.docs.DocumentListEntry;
+import com.google.gdata.data.docs.DocumentListFeed;
+import docs.BulkResult;
+import docs.ContentDeduplicator;
+import docs.DocumentList;
+import docs.EntrySummary;
+import docs.EntrySummaryReader;
+import docs.FlightRecording;
+import docs.MigrationQueue;
+import docs.ProgressReporter;
+import docs.ShardRing;
+import docs.ShardedMigrator;
+import docs.WikiConverterPool;
+import docs.WikiLinkIndex;
+import docs.WikiMigrator;
+import docs.WikiSession;
+import docs.WorkLedger;
+import net.sourceforge.jwbf.mediawiki.bots.MediaWikiBot;
+import sample.util.SimpleCommandLineParser;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the full migration path against the embedded stand-in servers and
+ * reports throughput, latency and heap usage.
+ *
+ * Every document is listed from the fake Documents List feed, exported,
+ * converted and saved to the fake wiki by a pool of worker threads, the same way
+ * a bulk migration does it against the real services.
+ */
+public class LoadTestHarness {
+    private static final String[] USAGE_MESSAGE = {
+            "Usage: java docs.loadtest.LoadTestHarness",
+            "    [--docs <n>]                  Documents in the corpus (default = 1000)",
+            "    [--folders <n>]               Folders the documents are spread over (default = 20)",
+            "    [--docBytes <n>]              Size of each exported document (default = 20000)",
+            "    [--threads <n>]               Migration worker threads (default = 8)",
+            "    [--docsLatency <ms>]          Delay of every Google request (default = 0)",
+            "    [--wikiLatency <ms>]          Delay of every wiki request (default = 0)",
+            "    [--errorRate <fraction>]      Fraction of requests that fail (default = 0)",
+            "    [--splitPages <chars>]        Split longer pages at top-level headings"
+                    + " (default = 0, never)",
+            "    [--largeEvery <n>]            Make every n-th document large (default = 0,"
+                    + " never)",
+            "    [--largeBytes <n>]            Size of the large documents (default = 2000000)",
+            "    [--order <k1,k2,...>]         Migrate through a MigrationQueue in this order,"
+                    + " e.g. size,-updated",
+            "    [--slowBytes <n>]             Size above which a document takes the slow lane"
+                    + " (default = 1000000)",
+            "    [--rewriteLinks]              Index the corpus first and turn links between"
+                    + " documents into wiki links",
+            "    [--converter <name>]          HTML to wiki converter, e.g. native (default = "
+                    + WikiConverterPool.DEFAULT_CONVERTER + ")",
+            "    [--copies <n>]                Make documents copies of each other in runs of n"
+                    + " (default = 0, none)",
+            "    [--dedup]                     Turn copies of migrated documents into redirects",
+            "    [--streamListing]             Also time a streamed listing of the corpus, for"
+                    + " comparison",
+            "    [--jfr <file>]                Record a flight recording with the migration"
+                    + " events, written on exit",
+            "    [--jfrSettings <settings>]    default, profile or a .jfc file (default = "
+                    + FlightRecording.DEFAULT_SETTINGS + ")",
+            "    [--progress <ms>]             Print progress this often while migrating"
+                    + " (default = 0, never)",
+            "    [--shards <n>]                Migrate as n sharded workers of --threads each,"
+                    + " sharing a ledger (default = 0, unsharded)",
+            "    [--crashShard <i>]            Never start worker i, so the others take over"
+                    + " its documents once its lease runs out",
+            "    [--lease <ms>]                Lease of a sharded claim (default = "
+                    + WorkLedger.DEFAULT_LEASE_MILLIS + ")",
+            ""};
+
+    private static final String ROOT_TITLE = "CloudHealth";
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLineParser parser = new SimpleCommandLineParser(args);
+        if (parser.containsKey("help", "h")) {
+            for (String line : USAGE_MESSAGE) {
+                System.out.println(line);
+            }
+            return;
+        }
+
+        int docs = getInt(parser, "docs", 1000);
+        int folders = getInt(parser, "folders", 20);
+        int docBytes = getInt(parser, "docBytes", 20000);
+        int threads = getInt(parser, "threads", 8);
+        int docsLatency = getInt(parser, "docsLatency", 0);
+        int wikiLatency = getInt(parser, "wikiLatency", 0);
+        String errorRate = parser.getValue("errorRate");
+        int splitPages = getInt(parser, "splitPages", 0);
+        int largeEvery = getInt(parser, "largeEvery", 0);
+        int largeBytes = getInt(parser, "largeBytes", 2000000);
+        String order = parser.getValue("order");
+        int slowBytes = getInt(parser, "slowBytes", 1000000);
+        boolean rewriteLinks = parser.containsKey("rewriteLinks");
+        String converter = parser.getValue("converter");
+        int progressMillis = getInt(parser, "progress", 0);
+        int copies = getInt(parser, "copies", 0);
+        boolean dedup = parser.containsKey("dedup");
+        boolean streamListing = parser.containsKey("streamListing");
+        int shards = getInt(parser, "shards", 0);
+        int crashShard = getInt(parser, "crashShard", -1);
+        long lease = getInt(parser, "lease", (int) WorkLedger.DEFAULT_LEASE_MILLIS);
+        String jfr = parser.getValue("jfr");
+        if (jfr != null) {
+            FlightRecording.start(jfr, parser.getValue("jfrSettings"));
+        }
+
+        FakeDocsServer docsServer = new FakeDocsServer(docs, folders, docBytes);
+        docsServer.setLargeDocuments(largeEvery, largeBytes);
+        docsServer.setCopies(copies);
+        FakeWikiServer wikiServer = new FakeWikiServer();
+        docsServer.setLatencyMillis(docsLatency);
+        wikiServer.setLatencyMillis(wikiLatency);
+        int handlers = threads * 2 * Math.max(1, shards);
+        docsServer.start(handlers);
+        wikiServer.start(handlers);
+
+        try {
+            DocumentList documentList = new DocumentList("LoadTestHarness",
+                    "http://" + docsServer.getAddress());
+            documentList.loginWithAuthSubToken("fake-token");
+            MediaWikiBot bot = WikiSession.login("http://" + wikiServer.getAddress() + "/wiki/",
+                    "LoadTest", "fake-password", null);
+            WikiMigrator migrator = newMigrator(documentList, bot, splitPages, converter, dedup);
+
+            // Each sharded worker logs in on its own, the way a separate
+            // process would, rather than sharing the bot of this one.
+            List<WikiMigrator> shardMigrators = new ArrayList<WikiMigrator>();
+            for (int shard = 0; shard < shards; shard++) {
+                DocumentList shardList = new DocumentList("LoadTestHarness",
+                        "http://" + docsServer.getAddress());
+                shardList.loginWithAuthSubToken("fake-token");
+                shardMigrators.add(newMigrator(shardList, WikiSession.login(
+                        "http://" + wikiServer.getAddress() + "/wiki/", "LoadTest",
+                        "fake-password", null), splitPages, converter, dedup));
+            }
+
+            if (streamListing) {
+                long begin = System.nanoTime();
+                long count = documentList.streamDocsListFeed("documents",
+                        new EntrySummaryReader.Handler() {
+                            public void entry(EntrySummary entry) {
+                            }
+                        });
+                System.out.println("Streamed listing:    " + count + " in "
+                        + format((System.nanoTime() - begin) / 1e9) + " s");
+            }
+
+            // Failures are only injected once setup is done.
+            if (errorRate != null) {
+                docsServer.setErrorRate(Double.parseDouble(errorRate));
+                wikiServer.setErrorRate(Double.parseDouble(errorRate));
+            }
+
+            if (shards > 0) {
+                migrateSharded(documentList, shardMigrators, threads, crashShard, lease,
+                        rewriteLinks);
+            } else {
+                run(documentList, migrator, threads, order, slowBytes, rewriteLinks,
+                        progressMillis);
+            }
+
+            System.out.println("Google requests:     " + docsServer.getRequestCount()
+                    + " (" + docsServer.getFailureCount() + " failed)");
+            System.out.println("Wiki requests:       " + wikiServer.getRequestCount()
+                    + " (" + wikiServer.getFailureCount() + " failed, "
+                    + wikiServer.getEditCount() + " edits)");
+            System.out.println("Wiki pages:          " + wikiServer.getPageCount());
+        } finally {
+            docsServer.stop();
+            wikiServer.stop();
+        }
+    }
+
+    private static void run(DocumentList documentList, final WikiMigrator migrator, int threads,
+                            String order, long slowBytes, boolean rewriteLinks,
+                            int progressMillis) throws Exception {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final AtomicLong peakHeap = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                if (used > peakHeap.get()) {
+                    peakHeap.set(used);
+                }
+            }
+        }, 0, 50, TimeUnit.MILLISECONDS);
+
+        try {
+            migrateAll(documentList, migrator, threads, order, slowBytes, rewriteLinks,
+                    progressMillis, memory, peakHeap);
+        } finally {
+            sampler.shutdownNow();
+        }
+    }
+
+    private static void migrateAll(DocumentList documentList, final WikiMigrator migrator,
+                                   int threads, String order, final long slowBytes,
+                                   boolean rewriteLinks, int progressMillis,
+                                   MemoryMXBean memory, AtomicLong peakHeap)
+            throws Exception {
+        long gcCountBefore = getGcCount();
+        long start = System.nanoTime();
+
+        List<DocumentListEntry> entries = new ArrayList<DocumentListEntry>();
+        DocumentListFeed feed = documentList.getDocsListFeed("documents",
+                DocumentList.FIELDS_SUMMARY);
+        while (feed != null) {
+            entries.addAll(feed.getEntries());
+            feed = documentList.getNextFeed(feed);
+        }
+        if (rewriteLinks) {
+            migrator.setLinkIndex(WikiLinkIndex.build(documentList, entries));
+        }
+        long listed = System.nanoTime();
+
+        final ProgressReporter progress = new ProgressReporter(entries.size());
+        migrator.setProgress(progress);
+        if (progressMillis > 0) {
+            progress.start(System.out, progressMillis);
+        }
+
+        final long[] latencies = new long[entries.size()];
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        long fastLaneMillis;
+        if (order != null) {
+            // The queue reports per-document results rather than timings, so
+            // only the fast lane finish time is compared against feed order.
+            MigrationQueue queue = new MigrationQueue(threads, Math.max(1, threads / 4),
+                    slowBytes);
+            queue.setProgress(progress);
+            for (BulkResult<DocumentListEntry> result : queue.migrate(entries,
+                    MigrationQueue.getOrder(order, null), migrator)) {
+                (result.isSuccess() ? completed : failed).incrementAndGet();
+            }
+            fastLaneMillis = queue.getFastLaneMillis();
+        } else {
+            final AtomicLong fastLaneEnd = new AtomicLong();
+            final long begun = System.nanoTime();
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < entries.size(); i++) {
+                final int index = i;
+                final DocumentListEntry entry = entries.get(i);
+                workers.execute(new Runnable() {
+                    public void run() {
+                        long begin = System.nanoTime();
+                        try {
+                            migrator.migrate(entry, null);
+                            completed.incrementAndGet();
+                            progress.documentDone();
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                            progress.documentFailed();
+                        } finally {
+                            long now = System.nanoTime();
+                            latencies[index] = now - begin;
+                            Long size = entry.getQuotaBytesUsed();
+                            if (size == null || size <= slowBytes) {
+                                synchronized (fastLaneEnd) {
+                                    fastLaneEnd.set(Math.max(fastLaneEnd.get(), now - begun));
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            fastLaneMillis = TimeUnit.NANOSECONDS.toMillis(fastLaneEnd.get());
+        }
+        long end = System.nanoTime();
+        progress.stop();
+
+        Arrays.sort(latencies);
+        double seconds = (end - listed) / 1e9;
+        System.out.println("Documents listed:    " + entries.size() + " in "
+                + format((listed - start) / 1e9) + " s");
+        System.out.println("Documents migrated:  " + completed.get() + " ("
+                + failed.get() + " failed) in " + format(seconds) + " s");
+        System.out.println("Throughput:          " + format(completed.get() / seconds)
+                + " docs/s");
+        if (order == null) {
+            System.out.println("Latency p50/p99/max: " + millis(percentile(latencies, 0.50))
+                    + " / " + millis(percentile(latencies, 0.99)) + " / "
+                    + millis(percentile(latencies, 1.0)) + " ms");
+        }
+        System.out.println("Conversion:          " + migrator.getConverters().getThroughput());
+        if (migrator.getDeduplicator() != null) {
+            System.out.println("Copies redirected:   "
+                    + migrator.getDeduplicator().getDuplicateCount());
+        }
+        System.out.println("Exported:            "
+                + format(progress.getBytes() / (1024.0 * 1024.0)) + " MB");
+        System.out.println("Small docs done in:  " + format(fastLaneMillis / 1e3) + " s");
+        System.out.println("Peak heap used:      " + (peakHeap.get() / (1024 * 1024)) + " MB"
+                + " (max " + (memory.getHeapMemoryUsage().getMax() / (1024 * 1024)) + " MB)");
+        System.out.println("GC collections:      " + (getGcCount() - gcCountBefore));
+    }
+
+    private static WikiMigrator newMigrator(DocumentList documentList, MediaWikiBot bot,
+                                            int splitPages, String converter, boolean dedup)
+            throws Exception {
+        WikiMigrator migrator = new WikiMigrator(documentList, bot, ROOT_TITLE);
+        migrator.setSplitThreshold(splitPages);
+        if (converter != null) {
+            migrator.setConverters(WikiConverterPool.forName(converter));
+        }
+        if (dedup) {
+            migrator.setDeduplicator(new ContentDeduplicator());
+        }
+        return migrator;
+    }
+
+    /**
+     * Migrates the corpus as several sharded workers in this process, each
+     * with its own logins, migrator and threads, sharing a ledger in a
+     * temporary directory the way separate processes would.
+     *
+     * @param migrators the migrator of each worker, one per shard.
+     */
+    private static void migrateSharded(DocumentList documentList, List<WikiMigrator> migrators,
+                                       int threads, int crashShard, long lease,
+                                       boolean rewriteLinks) throws Exception {
+        int shards = migrators.size();
+        long start = System.nanoTime();
+        final List<DocumentListEntry> entries = new ArrayList<DocumentListEntry>();
+        DocumentListFeed feed = documentList.getDocsListFeed("documents",
+                DocumentList.FIELDS_SUMMARY);
+        while (feed != null) {
+            entries.addAll(feed.getEntries());
+            feed = documentList.getNextFeed(feed);
+        }
+        if (rewriteLinks) {
+            WikiLinkIndex linkIndex = WikiLinkIndex.build(documentList, entries);
+            for (WikiMigrator migrator : migrators) {
+                migrator.setLinkIndex(linkIndex);
+            }
+        }
+        long listed = System.nanoTime();
+
+        File directory = File.createTempFile("ledger", "");
+        directory.delete();
+        ShardRing ring = new ShardRing(shards);
+        ExecutorService workers = Executors.newFixedThreadPool(shards);
+        List<Future<List<BulkResult<DocumentListEntry>>>> futures =
+                new ArrayList<Future<List<BulkResult<DocumentListEntry>>>>();
+        for (int shard = 0; shard < shards; shard++) {
+            if (shard == crashShard) {
+                continue;
+            }
+            final ShardedMigrator sharded = new ShardedMigrator(
+                    migrators.get(shard), new WorkLedger(directory, lease), ring, shard, threads);
+            sharded.setLog(System.out);
+            futures.add(workers.submit(new Callable<List<BulkResult<DocumentListEntry>>>() {
+                public List<BulkResult<DocumentListEntry>> call() throws Exception {
+                    return sharded.migrateAll(entries);
+                }
+            }));
+        }
+        int completed = 0;
+        int failed = 0;
+        int count = 0;
+        for (Future<List<BulkResult<DocumentListEntry>>> future : futures) {
+            List<BulkResult<DocumentListEntry>> results = future.get();
+            for (BulkResult<DocumentListEntry> result : results) {
+                if (result.isSuccess()) {
+                    completed++;
+                } else {
+                    failed++;
+                }
+            }
+            System.out.println("Worker " + count++ + " migrated:   " + results.size());
+        }
+        workers.shutdown();
+        long end = System.nanoTime();
+
+        double seconds = (end - listed) / 1e9;
+        System.out.println("Documents listed:    " + entries.size() + " in "
+                + format((listed - start) / 1e9) + " s");
+        System.out.println("Documents migrated:  " + completed + " (" + failed
+                + " failed) in " + format(seconds) + " s by " + futures.size() + " of "
+                + shards + " workers");
+        System.out.println("Throughput:          " + format(completed / seconds) + " docs/s");
+        System.out.println("Ledger:              " + directory);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static String millis(long nanos) {
+        return format(nanos / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format("%.1f", value);
+    }
+
+    private static int getInt(SimpleCommandLineParser parser, String key, int defaultValue) {
+        String value = parser.getValue(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}